@@ -0,0 +1,24 @@
+package common;
+
+/**
+ * The possible counter-increment flavours inserted by the instrumenter.
+ */
+public enum CounterMode {
+  DEFAULT, SYNCHRONIZED, STRIPED, MAPPED, SAMPLED, COMPACT, COVERAGE;
+
+  /**
+   * {@return a description for the counter mode}
+   */
+  @Override
+  public String toString() {
+    return switch (this) {
+      case DEFAULT -> "Unsynchronized counters";
+      case SYNCHRONIZED -> "Synchronized counters";
+      case STRIPED -> "Thread-striped counters";
+      case MAPPED -> "Memory-mapped counters";
+      case SAMPLED -> "Sampled counters";
+      case COMPACT -> "Compact int counters";
+      case COVERAGE -> "Coverage-only counters";
+    };
+  }
+}
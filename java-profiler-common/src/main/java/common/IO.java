@@ -63,22 +63,22 @@ public class IO {
 
   /**
    * To successfully <b>compile</b> instrumented versions of source files, an import statement is added to all source files.
-   * A <code>__Counter.class</code> file is placed in an "auxiliary" package directory to resolve these imports.
+   * The pre-compiled <code>__Counter</code> class files are placed in an "auxiliary" package directory to resolve these imports.
    *
-   * @return where the pre-compiled <code>__Counter.class</code> class will be copied to before compilation
+   * @return the directory the pre-compiled auxiliary class files will be copied to before compilation
    */
-  public static Path getAuxiliaryCounterInstrumentPath() {
-    return getInstrumentDir().resolve("auxiliary").resolve("__Counter.class");
+  public static Path getAuxiliaryInstrumentDir() {
+    return getInstrumentDir().resolve("auxiliary");
   }
 
   /**
    * To successfully <b>run</b> instrumented versions of source files, an import statement is added to all source files.
-   * A <code>__Counter.class</code> file is placed in an auxiliary package directory to resolve this dependency.
+   * The pre-compiled <code>__Counter</code> class files are placed in an auxiliary package directory to resolve this dependency.
    *
-   * @return where the pre-compiled <code>__Counter.class</code> class will be copied to before running the instrumented code.
+   * @return the directory the pre-compiled auxiliary class files will be copied to before running the instrumented code
    */
-  public static Path getAuxiliaryCounterClassPath() {
-    return getClassesDir().resolve("auxiliary").resolve("__Counter.class");
+  public static Path getAuxiliaryClassesDir() {
+    return getClassesDir().resolve("auxiliary");
   }
 
   /**
@@ -101,6 +101,88 @@ public class IO {
     return getOutputDir().resolve("counts.dat");
   }
 
+  /**
+   * Returns the path to the resulting timing file.
+   * This data is only written if the program was instrumented with timing support.
+   *
+   * @return <code>timing.dat<code> relative to the {@link #outputDir}
+   */
+  public static Path getTimingPath() {
+    return getOutputDir().resolve("timing.dat");
+  }
+
+  /**
+   * Returns the path to the resulting call graph file.
+   * This data is only written if the program was instrumented to count the calls between methods.
+   *
+   * @return <code>callgraph.dat<code> relative to the {@link #outputDir}
+   */
+  public static Path getCallGraphPath() {
+    return getOutputDir().resolve("callgraph.dat");
+  }
+
+  /**
+   * Returns the path to the resulting paths file.
+   * This data is only written if the program was instrumented to count the paths through methods.
+   *
+   * @return <code>paths.dat<code> relative to the {@link #outputDir}
+   */
+  public static Path getPathsPath() {
+    return getOutputDir().resolve("paths.dat");
+  }
+
+  /**
+   * Returns the directory of the periodic counts snapshots.
+   * Snapshots are only written if a snapshot interval is given when running the instrumented program.
+   *
+   * @return <code>snapshots<code> relative to the {@link #outputDir}
+   */
+  public static Path getSnapshotsDir() {
+    return getOutputDir().resolve("snapshots");
+  }
+
+  /**
+   * Returns the path of a counts snapshot, written a given time after the start of the instrumented program.
+   * A snapshot has the same format as the counts file and contains the accumulated counts up to this point in time.
+   *
+   * @param elapsedMillis the milliseconds elapsed since the program start when the snapshot was written
+   * @return <code>counts-&lt;elapsedMillis&gt;.dat<code> relative to the snapshots directory
+   */
+  public static Path getSnapshotPath(long elapsedMillis) {
+    return getSnapshotsDir().resolve("counts-" + elapsedMillis + ".dat");
+  }
+
+  /**
+   * Returns the directory of the instrumentation cache.
+   * It stores the parsed model of every source file, to skip unchanged files when instrumenting them again.
+   *
+   * @return <code>cache<code> relative to the {@link #outputDir}
+   */
+  public static Path getCacheDir() {
+    return getOutputDir().resolve("cache");
+  }
+
+  /**
+   * Returns the path of the instrumentation cache index.
+   * It records the source content and instrumentation settings of every instrumented file.
+   *
+   * @return <code>index.dat<code> relative to the cache directory
+   */
+  public static Path getCacheIndexPath() {
+    return getCacheDir().resolve("index.dat");
+  }
+
+  /**
+   * Returns the path of the compile index.
+   * It records the class files compiled from every instrumented source file and the classes they reference,
+   * to recompile only changed files and their dependents.
+   *
+   * @return <code>compile.dat<code> relative to the {@link #outputDir}
+   */
+  public static Path getCompileIndexPath() {
+    return getOutputDir().resolve("compile.dat");
+  }
+
   /**
    * Returns the containing root directory for the generated report.
    *
@@ -119,6 +201,16 @@ public class IO {
     return getReportDir().resolve("index.html");
   }
 
+  /**
+   * Returns the file path of an exported call graph in the report directory.
+   *
+   * @param fileExtension the extension of the export format, e.g. <code>dot</code> or <code>json</code>
+   * @return <code>callgraph.</code> + <code>fileExtension</code> relative to the report directory
+   */
+  public static Path getReportCallGraphPath(String fileExtension) {
+    return getReportDir().resolve("callgraph." + fileExtension);
+  }
+
   /**
    * Returns the path of a JavaScript or CSS report file relative to the report directory.
    *
@@ -12,6 +12,7 @@ import java.util.List;
 public class JavaCommandBuilder {
   private String mainClass;
   private Path classPath;
+  private final List<String> jvmArgs = new ArrayList<>();
   private final List<String> args = new ArrayList<>();
 
   /**
@@ -34,6 +35,18 @@ public class JavaCommandBuilder {
     return this;
   }
 
+  /**
+   * Registers an additional option for the <code>java</code> command itself, like a system property definition.
+   * Will be added in-order before the class path and main class.
+   * It can be called multiple times.
+   * @param jvmArg the option string (example: -Dkey=value)
+   * @return the builder object itself for method chaining
+   */
+  public JavaCommandBuilder addJvmArg(String jvmArg) {
+    this.jvmArgs.add(jvmArg);
+    return this;
+  }
+
   /**
    * Registers additional arguments for the executed program.
    * An internal list is kept and appended in order of specification.
@@ -59,6 +72,7 @@ public class JavaCommandBuilder {
   public String[] build() {
     List<String> command = new ArrayList<>();
     command.add("java");
+    command.addAll(jvmArgs);
     if (classPath != null) {
       command.add("-cp");
       command.add(classPath.toString());
@@ -0,0 +1,20 @@
+package common;
+
+/**
+ * The possible modes of timing instrumentation for method, constructor and lambda bodies.
+ */
+public enum TimingMode {
+  NONE, WALL, CPU;
+
+  /**
+   * {@return a description for the timing mode}
+   */
+  @Override
+  public String toString() {
+    return switch (this) {
+      case NONE -> "No timing";
+      case WALL -> "Wall-clock time";
+      case CPU -> "CPU time";
+    };
+  }
+}
@@ -0,0 +1,69 @@
+package auxiliary;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * The configuration of the {@link __Counter} class.
+ * <p>
+ * For every instrumented project, the instrumenter generates and compiles its own version of this class,
+ * with all values declared as constants. The profiled program then does not read any file at startup,
+ * and the JIT compiler can fold the values into the compiled increments.
+ * <p>
+ * This default version is only used if no configuration could be generated,
+ * e.g. if no system Java compiler is available. It reads the values from the header of the metadata file.
+ * The values are assigned in a static initializer, so they are never inlined into <code>__Counter</code>.
+ */
+public class __Config {
+  /**
+   * The profiler output directory, resolved like in <code>__Counter</code>:
+   * the <code>profiler.outputDir</code> system property if set, the default <code>.profiler</code> directory otherwise.
+   */
+  public static final String OUTPUT_DIR;
+  /**
+   * The number of blocks.
+   */
+  public static final int BLOCKS_COUNT;
+  /**
+   * The sampling rate of sampled counters (1 if every hit is counted).
+   */
+  public static final int SAMPLING_RATE;
+  /**
+   * The timing mode: 0 for none, 1 for wall-clock time and 2 for CPU time.
+   */
+  public static final int TIMING_MODE;
+  /**
+   * Whether the calls between methods are counted.
+   */
+  public static final boolean CALL_GRAPH;
+  /**
+   * Whether the acyclic paths through methods are counted.
+   */
+  public static final boolean PATHS;
+
+  static {
+    OUTPUT_DIR = System.getProperty("profiler.outputDir", ".profiler");
+    File file = new File(OUTPUT_DIR, "metadata.dat");
+    if (!file.exists()) {
+      throw new RuntimeException("Metadata not found at expected path: " + file.getAbsolutePath());
+    }
+    try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+      // the magic number and version of the metadata format precede the header values (see tool.model.MetadataFormat),
+      // kept in sync by MainTest.testInstrumentOnly_defaultConfig
+      if (dis.readInt() != 0x4A504D44 || dis.readInt() != 5) {
+        throw new RuntimeException("Invalid or unsupported metadata file: " + file.getAbsolutePath());
+      }
+      BLOCKS_COUNT = dis.readInt();
+      dis.readInt(); // counter mode, implied by the increment methods used
+      SAMPLING_RATE = dis.readInt();
+      TIMING_MODE = dis.readInt();
+      CALL_GRAPH = dis.readBoolean();
+      dis.readBoolean(); // minimal counters, only needed by the report
+      PATHS = dis.readBoolean();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
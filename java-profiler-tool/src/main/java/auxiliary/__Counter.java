@@ -1,77 +1,1560 @@
 package auxiliary;
 
+import javax.management.ObjectName;
 import java.io.*;
-import java.util.concurrent.atomic.AtomicLongArray;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
 
 /**
  * This class is used to count the number of times a block of code is executed.
  */
 public class __Counter {
+  /**
+   * The program start, i.e. the initialization of this class, used for naming snapshots.
+   */
+  private static final long startTime = System.nanoTime();
+  /**
+   * The profiler output directory the counts are written to, taken from {@link __Config}.
+   * It can be overridden using the <code>profiler.outputDir</code> system property,
+   * e.g. if the instrumented program is deployed to another machine.
+   */
+  private static final String outputDir = System.getProperty("profiler.outputDir", __Config.OUTPUT_DIR);
+
+  /**
+   * The global kill switch of the profiler, read once from the <code>profiler.enabled</code> system property
+   * (enabled unless it is <code>false</code>).
+   * <p>
+   * Every counting method returns immediately if profiling is disabled. As the flag is a static final field,
+   * the JIT compiler treats it as a constant: when the counting methods are inlined into the instrumented code,
+   * the disabled counters are removed, and the enabled ones do not pay for the check.
+   * The instrumented code itself stays, e.g. the wrapper lambdas passed to <code>incLambda</code> are still created,
+   * unless the JIT compiler can eliminate their allocation.
+   * So a disabled build still runs slower than an uninstrumented one, but it can be deployed with profiling turned off
+   * and only turned on when needed. If profiling is disabled, no counters are allocated,
+   * no background threads are started and no results are saved.
+   */
+  private static final boolean enabled = !"false".equals(System.getProperty("profiler.enabled"));
+
+  /**
+   * The executor writing the counts snapshots, or <code>null</code> if no snapshots are written.
+   */
+  private static ScheduledExecutorService snapshotExecutor;
+
   static {
-    init(".profiler/metadata.dat");
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> save((".profiler/counts.dat"))));
+    if (enabled) {
+      if (!Boolean.getBoolean("profiler.inProcess")) {
+        Runtime.getRuntime().addShutdownHook(new Thread(__Counter::saveAll));
+      }
+      startSnapshots(outputDir + "/snapshots", Long.getLong("profiler.snapshotInterval", 0));
+      if (Boolean.getBoolean("profiler.jmx")) {
+        registerMBean();
+      }
+    }
+  }
+
+  /**
+   * The number of blocks, a constant of the generated {@link __Config}.
+   */
+  private static final int nBlocks = __Config.BLOCKS_COUNT;
+  /**
+   * The counter-array for regular increments, allocated by {@link BlockCounts} on the first increment.
+   * <p>
+   * Like all other counter-arrays, it stays <code>null</code> if the program was instrumented with another flavour,
+   * so only the array actually needed is ever allocated.
+   */
+  private static volatile long[] blockCounts;
+  /**
+   * The counter-array for synchronized increments, allocated by {@link SyncCounts}.
+   * A plain array (instead of an <code>AtomicLongArray</code>) is used, so that it can be copied in bulk.
+   * All increments are atomic using {@link #ATOMIC_COUNT}.
+   */
+  private static volatile long[] syncBlockCounts;
+  /**
+   * Atomic access to the elements of a counter-array.
+   */
+  private static final VarHandle ATOMIC_COUNT = MethodHandles.arrayElementVarHandle(long[].class);
+  /**
+   * The counter-array for sampled increments, counting only the sampled hits, allocated by {@link SampledCounts}.
+   * The counts are multiplied by the {@link #samplingRate} when they are collected.
+   */
+  private static volatile long[] sampledBlockCounts;
+  /**
+   * The compact counter-array, allocated by {@link CompactCounts}.
+   * Each count is an unsigned int, so it takes half the memory of a long counter.
+   */
+  private static volatile int[] compactBlockCounts;
+  /**
+   * The overflow of the compact counters, in multiples of <code>2^32</code>.
+   * Only allocated once the first compact counter overflows.
+   */
+  private static volatile long[] compactOverflowCounts;
+  /**
+   * The coverage-array, allocated by {@link Coverage}. A block is covered if its entry is non-zero.
+   */
+  private static volatile byte[] coveredBlocks;
+  /**
+   * On average, only one of <code>samplingRate</code> sampled hits is counted. Taken from {@link __Config}.
+   */
+  private static final int samplingRate = __Config.SAMPLING_RATE;
+  /**
+   * Number of sampling countdown slots (as a power of two). The slot of a thread is selected by its id.
+   */
+  private static final int SAMPLE_SLOTS = 256;
+  /**
+   * Distance between the countdowns of two slots (or of the countdown of a thread to the end of its array),
+   * so that a countdown never shares a cache line with the countdown of another thread.
+   */
+  private static final int SAMPLE_SLOT_STRIDE = 16;
+  /**
+   * The countdown of each slot, i.e. the number of sampled hits its owner thread has left to skip
+   * before the next one is counted. Only the owner of a slot writes its countdown,
+   * so the countdown is neither synchronized nor shared, like the counter-stripes.
+   */
+  private static final int[] sampleCountdowns = new int[SAMPLE_SLOTS * SAMPLE_SLOT_STRIDE];
+  /**
+   * The thread owning each countdown slot, or <code>null</code> if the slot was not claimed yet.
+   * The slot of a terminated thread is claimed by the next thread with the same slot.
+   */
+  private static final Thread[] sampleSlotOwners = new Thread[SAMPLE_SLOTS];
+  private static final VarHandle SAMPLE_SLOT_OWNER = MethodHandles.arrayElementVarHandle(Thread[].class);
+  /**
+   * The countdown of a thread whose slot is owned by another live thread.
+   * It is kept in the middle of the array, so that it never shares a cache line with the countdown of another thread.
+   */
+  private static final int SAMPLE_COUNTDOWN_INDEX = SAMPLE_SLOT_STRIDE;
+  private static final ThreadLocal<int[]> threadSampleCountdown = ThreadLocal.withInitial(() -> {
+    int[] countdown = new int[2 * SAMPLE_SLOT_STRIDE];
+    countdown[SAMPLE_COUNTDOWN_INDEX] = nextSampleSkip();
+    return countdown;
+  });
+
+  /**
+   * Number of blocks per lazily allocated page of a thread-striped counter-array (as a power of two).
+   */
+  private static final int STRIPE_PAGE_SHIFT = 10;
+  private static final int STRIPE_PAGE_SIZE = 1 << STRIPE_PAGE_SHIFT;
+  /**
+   * All thread-striped counter-arrays ever created, also of already terminated threads.
+   * Only accessed when a new thread increments its first counter and when the counts are saved.
+   */
+  private static final Queue<long[][]> allStripes = new ConcurrentLinkedQueue<>();
+  /**
+   * The counter-pages owned by the current thread, incremented by {@link #incStriped}.
+   */
+  private static final ThreadLocal<long[][]> threadStripe = ThreadLocal.withInitial(__Counter::newStripe);
+  /**
+   * The timing mode taken from {@link __Config}: 0 for none, 1 for wall-clock time and 2 for CPU time.
+   */
+  private static final int timingMode = __Config.TIMING_MODE;
+  /**
+   * The source of the current thread's CPU time, only set for the CPU timing mode.
+   */
+  private static final ThreadMXBean cpuTimer = timingMode == 2 ? ManagementFactory.getThreadMXBean() : null;
+  /**
+   * The timing stacks of all threads ever created, also of already terminated threads.
+   */
+  private static final Queue<TimingStack> allTimingStacks = new ConcurrentLinkedQueue<>();
+  /**
+   * The stack of timed blocks currently executed by the current thread, used by {@link #enter} and {@link #exit}.
+   */
+  private static final ThreadLocal<TimingStack> threadTimingStack = ThreadLocal.withInitial(() -> {
+    TimingStack stack = new TimingStack();
+    allTimingStacks.add(stack);
+    return stack;
+  });
+
+  /**
+   * The per-thread stack of entered, but not yet exited, timed blocks,
+   * together with the accumulated times of all blocks timed by the thread.
+   * <p>
+   * The times are kept in lazily allocated pages like the thread-striped counters,
+   * so no synchronization is needed when a timed block is exited.
+   */
+  private static class TimingStack {
+    long[] starts = new long[64];
+    long[] childNanos = new long[64];
+    int depth;
+    final long[][] totalPages = new long[(nBlocks + STRIPE_PAGE_SIZE - 1) >>> STRIPE_PAGE_SHIFT][];
+    final long[][] selfPages = new long[totalPages.length][];
+
+    void push(long start) {
+      if (depth == starts.length) {
+        starts = Arrays.copyOf(starts, depth * 2);
+        childNanos = Arrays.copyOf(childNanos, depth * 2);
+      }
+      starts[depth] = start;
+      childNanos[depth] = 0;
+      depth++;
+    }
+
+    void pop(int n, long end, boolean counted) {
+      depth--;
+      long total = end - starts[depth];
+      long self = total - childNanos[depth];
+      if (depth > 0) {
+        childNanos[depth - 1] += total;
+      }
+      if (!counted) {
+        return;
+      }
+      int p = n >>> STRIPE_PAGE_SHIFT;
+      if (totalPages[p] == null) {
+        totalPages[p] = new long[STRIPE_PAGE_SIZE];
+        selfPages[p] = new long[STRIPE_PAGE_SIZE];
+      }
+      totalPages[p][n & (STRIPE_PAGE_SIZE - 1)] += total;
+      selfPages[p][n & (STRIPE_PAGE_SIZE - 1)] += self;
+    }
+  }
+
+  /**
+   * The target of {@link #countedSite} while no class is disabled, counting the hits of every block.
+   */
+  private static final MethodHandle allCounted =
+      MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, int.class);
+  /**
+   * The call site deciding whether the hits of a block are counted, see {@link #isCounted}.
+   * <p>
+   * While no class is disabled, its target is the constant {@link #allCounted}. Otherwise, it compares the block id
+   * with the few ranges of disabled blocks, or looks it up in a table of counted blocks if there are many.
+   * The JIT compiler inlines the current target into the counting methods,
+   * and deoptimizes the compiled code depending on it whenever the target is changed.
+   * Once a counting method is inlined at an instrumented block, the block id is a constant, so the range comparisons
+   * are folded and the blocks of enabled classes are counted without any check.
+   */
+  private static final MutableCallSite countedSite = new MutableCallSite(allCounted);
+  private static final MethodHandle counted = countedSite.dynamicInvoker();
+  /**
+   * The maximum number of disabled block ranges compared by the target of {@link #countedSite}.
+   */
+  private static final int MAX_RANGE_CHECKS = 8;
+  private static final MethodHandle notCounted =
+      MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, int.class);
+  private static final MethodHandle inRange;
+
+  static {
+    try {
+      inRange = MethodHandles.lookup().findStatic(__Counter.class, "isInRange",
+          MethodType.methodType(boolean.class, int.class, int.class, int.class));
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * The ranges of disabled blocks applied to {@link #countedSite}, as pairs of a first and an end block id.
+   */
+  private static int[] disabledRanges = new int[0];
+  /**
+   * The fully qualified names of the disabled classes and packages.
+   */
+  private static final Set<String> disabledClasses = ConcurrentHashMap.newKeySet();
+  /**
+   * The control file listing the disabled classes and packages, taken from the <code>profiler.controlFile</code>
+   * system property, or <code>null</code> if there is none.
+   */
+  private static final String controlFile = System.getProperty("profiler.controlFile");
+  /**
+   * The interval in milliseconds in which the control file is checked for changes.
+   */
+  private static final long CONTROL_FILE_INTERVAL = 1000;
+  /**
+   * The executor checking the control file for changes, or <code>null</code> if there is no control file.
+   */
+  private static ScheduledExecutorService controlFileExecutor;
+  private static long controlFileModified = 0;
+  private static long controlFileLength = 0;
+
+  static {
+    if (enabled && controlFile != null) {
+      watchControlFile(new File(controlFile));
+    }
+  }
+
+  /**
+   * Lazy holder of the classes of all blocks, read from the <code>__Classes.txt</code> resource
+   * generated next to the {@link __Config} class.
+   * <p>
+   * The blocks of a class are numbered consecutively, except for the blocks of nested classes.
+   * Each line of the resource therefore contains the first block id of a run of blocks of the same class,
+   * followed by the fully qualified name of the class. The run ends at the first block id of the next line.
+   */
+  private static class ClassBlocks {
+    static final int[] firstBlocks;
+    static final String[] names;
+
+    static {
+      List<String> lines = new ArrayList<>();
+      InputStream in = __Counter.class.getResourceAsStream("__Classes.txt");
+      if (in != null) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+          for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(line);
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      firstBlocks = new int[lines.size()];
+      names = new String[lines.size()];
+      for (int i = 0; i < lines.size(); i++) {
+        int space = lines.get(i).indexOf(' ');
+        firstBlocks[i] = Integer.parseInt(lines.get(i).substring(0, space));
+        names[i] = lines.get(i).substring(space + 1);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the hits of a block are counted, i.e. whether its class is not disabled.
+   *
+   * @param n the block id
+   * @return the result of the current target of {@link #countedSite}
+   */
+  private static boolean isCounted(int n) {
+    try {
+      return (boolean) counted.invokeExact(n);
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Updates the target of {@link #countedSite} to the current set of disabled classes and packages.
+   * <p>
+   * A class is disabled if its name, its package or any of its parent packages or enclosing classes is disabled.
+   * The target is only changed if the disabled blocks changed, so toggling names that match no class
+   * keeps the constant {@link #allCounted} target and does not deoptimize any code.
+   * The new target is published to all threads, so no thread keeps counting (or not counting) a toggled class.
+   */
+  private static synchronized void applyToggles() {
+    int[] ranges = disabledClasses.isEmpty() ? new int[0] : findDisabledRanges();
+    if (Arrays.equals(ranges, disabledRanges)) {
+      return;
+    }
+    disabledRanges = ranges;
+    MethodHandle target = allCounted;
+    if (ranges.length > 2 * MAX_RANGE_CHECKS) {
+      boolean[] countedBlocks = new boolean[nBlocks];
+      Arrays.fill(countedBlocks, true);
+      for (int i = 0; i < ranges.length; i += 2) {
+        Arrays.fill(countedBlocks, ranges[i], ranges[i + 1], false);
+      }
+      target = MethodHandles.arrayElementGetter(boolean[].class).bindTo(countedBlocks);
+    } else {
+      for (int i = 0; i < ranges.length; i += 2) {
+        MethodHandle test = MethodHandles.insertArguments(inRange, 1, ranges[i], ranges[i + 1]);
+        target = MethodHandles.guardWithTest(test, notCounted, target);
+      }
+    }
+    countedSite.setTarget(target);
+    MutableCallSite.syncAll(new MutableCallSite[]{countedSite});
+  }
+
+  /**
+   * Finds the blocks of all disabled classes, merging the runs of directly consecutive blocks.
+   *
+   * @return the ranges of disabled blocks, as pairs of a first and an end block id
+   */
+  private static int[] findDisabledRanges() {
+    int[] ranges = new int[0];
+    int[] firstBlocks = ClassBlocks.firstBlocks;
+    for (int i = 0; i < firstBlocks.length; i++) {
+      if (!isDisabled(ClassBlocks.names[i])) {
+        continue;
+      }
+      int end = i + 1 < firstBlocks.length ? firstBlocks[i + 1] : nBlocks;
+      if (ranges.length > 0 && ranges[ranges.length - 1] == firstBlocks[i]) {
+        ranges[ranges.length - 1] = end;
+      } else {
+        ranges = Arrays.copyOf(ranges, ranges.length + 2);
+        ranges[ranges.length - 2] = firstBlocks[i];
+        ranges[ranges.length - 1] = end;
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * The range check bound into the target of {@link #countedSite}.
+   *
+   * @param n     the block id
+   * @param first the first block id of the range
+   * @param end   the block id after the range
+   * @return whether the block is in the range
+   */
+  private static boolean isInRange(int n, int first, int end) {
+    return n >= first && n < end;
+  }
+
+  /**
+   * Returns whether a class is disabled by one of the disabled class or package names.
+   *
+   * @param className the fully qualified class name, with nested classes separated by <code>$</code>
+   * @return true if the class, one of its enclosing classes or one of its packages is disabled
+   */
+  private static boolean isDisabled(String className) {
+    for (String name : disabledClasses) {
+      if (className.equals(name) || className.startsWith(name + ".") || className.startsWith(name + "$")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the disabled classes and packages from the control file,
+   * and starts a background thread reading them again whenever the file changes.
+   *
+   * @param file the control file
+   */
+  private static void watchControlFile(File file) {
+    reloadControlFile(file);
+    controlFileExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "__Counter-control");
+      thread.setDaemon(true);
+      return thread;
+    });
+    controlFileExecutor.scheduleWithFixedDelay(() -> {
+      reloadControlFile(file);
+    }, CONTROL_FILE_INTERVAL, CONTROL_FILE_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Replaces the disabled classes and packages by the ones listed in the control file, if it changed.
+   * <p>
+   * The file contains one fully qualified class or package name per line. Empty lines and lines starting with
+   * <code>#</code> are ignored. A missing file disables nothing. If the file cannot be read, it is tried again later.
+   *
+   * @param file the control file
+   */
+  private static synchronized void reloadControlFile(File file) {
+    long modified = file.lastModified();
+    long length = file.length();
+    if (modified == controlFileModified && length == controlFileLength) {
+      return;
+    }
+    Set<String> names = new HashSet<>();
+    if (file.exists()) {
+      try {
+        for (String line : Files.readAllLines(file.toPath())) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            names.add(line);
+          }
+        }
+      } catch (IOException e) {
+        return;
+      }
+    }
+    controlFileModified = modified;
+    controlFileLength = length;
+    disabledClasses.clear();
+    disabledClasses.addAll(names);
+    applyToggles();
+  }
+
+  /**
+   * Whether the calls between methods are counted, taken from {@link __Config}.
+   */
+  private static final boolean callGraph = __Config.CALL_GRAPH;
+  /**
+   * The call stacks of all threads ever created, also of already terminated threads.
+   */
+  private static final Queue<CallStack> allCallStacks = new ConcurrentLinkedQueue<>();
+  /**
+   * The stack of methods currently executed by the current thread, used by {@link #call} and {@link #ret}.
+   */
+  private static final ThreadLocal<CallStack> threadCallStack = ThreadLocal.withInitial(() -> {
+    CallStack stack = new CallStack();
+    allCallStacks.add(stack);
+    return stack;
+  });
+
+  /**
+   * The per-thread stack of the currently executed methods (by the block id of their body),
+   * together with the number of calls along each caller-callee edge counted by the thread.
+   * <p>
+   * The edges are counted in an open-addressing hash table of primitive longs,
+   * with alternating keys and counts in a single array.
+   * A key combines the caller and the callee id, a key of zero marks an empty slot.
+   * A single array ensures that other threads, which read the counts when saving them,
+   * never see a key and count array of different sizes while the table grows.
+   */
+  private static class CallStack {
+    int[] methods = new int[64];
+    int depth;
+    volatile long[] edges = new long[2 * 256];
+    int edgesCount;
+
+    void push(int n, boolean counted) {
+      if (counted && depth > 0) {
+        countEdge(((long) (methods[depth - 1] + 1) << 32) | n);
+      }
+      if (depth == methods.length) {
+        methods = Arrays.copyOf(methods, depth * 2);
+      }
+      methods[depth++] = n;
+    }
+
+    void countEdge(long key) {
+      long[] table = edges;
+      int mask = (table.length >>> 1) - 1;
+      int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+      while (table[2 * slot] != key) {
+        if (table[2 * slot] == 0) {
+          table[2 * slot] = key;
+          if (++edgesCount > mask >>> 1) {
+            table[2 * slot + 1]++;
+            edges = grow(table);
+            return;
+          }
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      table[2 * slot + 1]++;
+    }
+
+    static long[] grow(long[] table) {
+      long[] newTable = new long[table.length * 2];
+      int mask = (newTable.length >>> 1) - 1;
+      for (int i = 0; i < table.length; i += 2) {
+        if (table[i] == 0) continue;
+        int slot = (int) ((table[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (newTable[2 * slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        newTable[2 * slot] = table[i];
+        newTable[2 * slot + 1] = table[i + 1];
+      }
+      return newTable;
+    }
+  }
+
+  /**
+   * Whether the acyclic paths through methods are counted, taken from {@link __Config}.
+   */
+  private static final boolean paths = __Config.PATHS;
+
+  /**
+   * Lazy holder of the dense path histograms, counted by {@link #pathDense}.
+   * <p>
+   * Every method with few enough paths gets its own histogram (indexed by the block id of its body) on its first exit,
+   * with one counter per path id. The counters are incremented atomically using {@link #ATOMIC_COUNT}.
+   */
+  private static class Paths {
+    static final AtomicReferenceArray<long[]> histograms = new AtomicReferenceArray<>(nBlocks);
+  }
+
+  /**
+   * The path tables of all threads ever created, also of already terminated threads.
+   */
+  private static final Queue<PathTable> allPathTables = new ConcurrentLinkedQueue<>();
+  /**
+   * The paths taken by the current thread through methods with too many paths for a dense histogram,
+   * counted by {@link #path}.
+   */
+  private static final ThreadLocal<PathTable> threadPathTable = ThreadLocal.withInitial(() -> {
+    PathTable table = new PathTable();
+    allPathTables.add(table);
+    return table;
+  });
+
+  /**
+   * The per-thread executions of the paths actually taken through methods with many paths,
+   * as the number of possible paths grows exponentially with the number of branches in a method.
+   * <p>
+   * Like the edges of a {@link CallStack}, the paths are counted in an open-addressing hash table of primitive longs,
+   * with the method id (plus one), the path id and the count of every entry in a single array.
+   * A method id of zero marks an empty slot. The path id is written before the method id,
+   * so other threads, which read the counts when saving them, never see an entry without its path id.
+   */
+  private static class PathTable {
+    volatile long[] entries = new long[3 * 256];
+    int entriesCount;
+
+    void count(int n, long path) {
+      long[] table = entries;
+      long key = n + 1;
+      int mask = table.length / 3 - 1;
+      int slot = slot(key, path, mask);
+      while (table[3 * slot] != key || table[3 * slot + 1] != path) {
+        if (table[3 * slot] == 0) {
+          table[3 * slot + 1] = path;
+          table[3 * slot] = key;
+          if (++entriesCount > mask >>> 1) {
+            table[3 * slot + 2]++;
+            entries = grow(table);
+            return;
+          }
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      table[3 * slot + 2]++;
+    }
+
+    static int slot(long key, long path, int mask) {
+      return (int) (((key * 31 + path) * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    static long[] grow(long[] table) {
+      long[] newTable = new long[table.length * 2];
+      int mask = newTable.length / 3 - 1;
+      for (int i = 0; i < table.length; i += 3) {
+        if (table[i] == 0) continue;
+        int slot = slot(table[i], table[i + 1], mask);
+        while (newTable[3 * slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        System.arraycopy(table, i, newTable, 3 * slot, 3);
+      }
+      return newTable;
+    }
+  }
+
+  /**
+   * Whether the counts file is memory-mapped by {@link MappedCounts} and must not be overwritten in {@link #save}.
+   */
+  private static volatile boolean countsMapped = false;
+
+  /**
+   * Lazy holder of the regular counter-array, incremented by {@link #inc}.
+   * <p>
+   * The holder classes are only initialized on the first increment of their flavour.
+   * Their array reference is a constant for the JIT compiler, so the laziness does not cost anything per increment.
+   */
+  private static class BlockCounts {
+    static final long[] counts = blockCounts = new long[nBlocks];
+  }
+
+  /**
+   * Lazy holder of the synchronized counter-array, incremented by {@link #incSync}.
+   */
+  private static class SyncCounts {
+    static final long[] counts = syncBlockCounts = new long[nBlocks];
+  }
+
+  /**
+   * Lazy holder of the sampled counter-array, incremented by {@link #incSampled}.
+   */
+  private static class SampledCounts {
+    static final long[] counts = sampledBlockCounts = new long[nBlocks];
+  }
+
+  /**
+   * Lazy holder of the compact counter-array, incremented by {@link #incCompact}.
+   */
+  private static class CompactCounts {
+    static final int[] counts = compactBlockCounts = new int[nBlocks];
+  }
+
+  /**
+   * Lazy holder of the coverage-array, marked by {@link #incCoverage}.
+   */
+  private static class Coverage {
+    static final byte[] covered = coveredBlocks = new byte[nBlocks];
+  }
+
+  /**
+   * Lazy holder of the memory-mapped counts file, incremented by {@link #incMapped}.
+   * <p>
+   * The file is only created and mapped on the first mapped increment,
+   * so programs instrumented with other counter flavours never touch it during execution.
+   */
+  private static class MappedCounts {
+    static final MappedByteBuffer buffer = map(outputDir + "/counts.dat");
+
+    /**
+     * Creates the counts file and maps it into memory.
+     * <p>
+     * The file gets the same layout as written by {@link #save}: the number of blocks followed by one long per block.
+     * Every counter starts out as zero, because the file is truncated before it is extended by the mapping.
+     *
+     * @param fileName the location of the counts file
+     * @return the read-write mapping of the whole file
+     */
+    private static MappedByteBuffer map(@SuppressWarnings("SameParameterValue") String fileName) {
+      long size = Integer.BYTES + (long) nBlocks * Long.BYTES;
+      if (size > Integer.MAX_VALUE) {
+        throw new RuntimeException("Too many blocks for a memory-mapped counts file: " + nBlocks);
+      }
+      try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapped.putInt(0, nBlocks);
+        countsMapped = true;
+        return mapped;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Increments the counter for the given block.
+   *
+   * @param n the block id
+   */
+  public static void inc(int n) {
+    if (!enabled || !isCounted(n)) return;
+    BlockCounts.counts[n]++;
+  }
+
+  /**
+   * Increments the counter for the given block, in a synchronized way.
+   *
+   * @param n the block id
+   */
+  public static void incSync(int n) {
+    if (!enabled || !isCounted(n)) return;
+    long ignored = (long) ATOMIC_COUNT.getAndAdd(SyncCounts.counts, n, 1L);
+  }
+
+  /**
+   * Increments the counter for the given block, but only for a random sample of all hits.
+   * <p>
+   * Every thread counts down its own number of hits to skip, in the countdown slot selected by its id.
+   * If the thread owns the slot, the fast path is a comparison with the owner and a single decrement,
+   * on a cache line that is not shared with other threads. There is no thread-local lookup,
+   * which would cost more than the decrement itself. Threads whose slot is owned by another live thread
+   * use a thread-local countdown instead (see {@link #incSampledUnowned}).
+   * <p>
+   * Only every {@link #samplingRate}-th hit (on average) is counted atomically.
+   * The distance between two counted hits is random, so that a periodic sequence of blocks
+   * (like the body of a loop) cannot always skip the same blocks.
+   *
+   * @param n the block id
+   */
+  @SuppressWarnings("deprecation")
+  public static void incSampled(int n) {
+    if (!enabled || !isCounted(n)) return;
+    Thread thread = Thread.currentThread();
+    int slot = (int) thread.getId() & (SAMPLE_SLOTS - 1);
+    if (sampleSlotOwners[slot] == thread) {
+      int i = slot * SAMPLE_SLOT_STRIDE;
+      if (--sampleCountdowns[i] <= 0) {
+        countSample(sampleCountdowns, i, n);
+      }
+    } else {
+      incSampledUnowned(thread, slot, n);
+    }
+  }
+
+  /**
+   * Slow path of {@link #incSampled} for a thread that does not own its countdown slot.
+   * <p>
+   * The thread claims the slot if it is free or its owner has terminated. Otherwise, it counts down
+   * its thread-local countdown. A thread only ever writes to its own slot, so a plain read of the owner
+   * in the fast path is enough to recognize it.
+   *
+   * @param thread the current thread
+   * @param slot   the countdown slot of the thread
+   * @param n      the block id
+   */
+  private static void incSampledUnowned(Thread thread, int slot, int n) {
+    Thread owner = (Thread) SAMPLE_SLOT_OWNER.getVolatile(sampleSlotOwners, slot);
+    if ((owner == null || !owner.isAlive()) && SAMPLE_SLOT_OWNER.compareAndSet(sampleSlotOwners, slot, owner, thread)) {
+      int i = slot * SAMPLE_SLOT_STRIDE;
+      sampleCountdowns[i] = nextSampleSkip();
+      if (--sampleCountdowns[i] <= 0) {
+        countSample(sampleCountdowns, i, n);
+      }
+      return;
+    }
+    int[] countdown = threadSampleCountdown.get();
+    if (--countdown[SAMPLE_COUNTDOWN_INDEX] <= 0) {
+      countSample(countdown, SAMPLE_COUNTDOWN_INDEX, n);
+    }
+  }
+
+  /**
+   * Counts a sampled hit and restarts the countdown of the current thread.
+   * Kept separate from {@link #incSampled} to keep its fast path small enough to be inlined.
+   *
+   * @param countdowns the array with the sampling countdown of the current thread
+   * @param i          the index of the countdown
+   * @param n          the block id
+   */
+  private static void countSample(int[] countdowns, int i, int n) {
+    countdowns[i] = nextSampleSkip();
+    long ignored = (long) ATOMIC_COUNT.getAndAdd(SampledCounts.counts, n, 1L);
+  }
+
+  /**
+   * Increments the compact counter for the given block.
+   * <p>
+   * The counter is an unsigned int, which is promoted to the long {@link #compactOverflowCounts}
+   * whenever it wraps around to zero. Like {@link #inc}, the increment is not synchronized.
+   *
+   * @param n the block id
+   */
+  public static void incCompact(int n) {
+    if (!enabled || !isCounted(n)) return;
+    if (++CompactCounts.counts[n] == 0) {
+      promoteOverflow(n, 1L << 32);
+    }
+  }
+
+  /**
+   * Adds overflows of the compact counter of the given block (multiples of <code>2^32</code> hits)
+   * to its overflow counter.
+   *
+   * @param n        the block id
+   * @param overflow the number of hits that overflowed the compact counter
+   */
+  private static synchronized void promoteOverflow(int n, long overflow) {
+    if (compactOverflowCounts == null) {
+      compactOverflowCounts = new long[nBlocks];
+    }
+    compactOverflowCounts[n] += overflow;
+  }
+
+  /**
+   * Marks the given block as covered, without counting its hits.
+   * <p>
+   * The coverage entry is only written on the first hit and only read afterward,
+   * so its cache line is not dirtied again and can stay shared between the caches of all cores.
+   *
+   * @param n the block id
+   */
+  public static void incCoverage(int n) {
+    if (!enabled || !isCounted(n)) return;
+    byte[] covered = Coverage.covered;
+    if (covered[n] == 0) {
+      covered[n] = 1;
+    }
+  }
+
+  /**
+   * Returns the number of hits until the next sampled hit is counted.
+   *
+   * @return a uniformly distributed random number between 1 and <code>2 * samplingRate - 1</code>,
+   * whose mean is the sampling rate
+   */
+  private static int nextSampleSkip() {
+    return 1 + ThreadLocalRandom.current().nextInt(2 * samplingRate - 1);
+  }
+
+  /**
+   * Increments the counter for the given block, in a thread-striped way.
+   * <p>
+   * Every thread owns its own counter-cells, so hot blocks executed in parallel
+   * do not contend for the same cache lines and no atomic instructions are needed.
+   * The cells of all threads are summed up in {@link #save}.
+   *
+   * @param n the block id
+   */
+  public static void incStriped(int n) {
+    if (!enabled || !isCounted(n)) return;
+    long[][] stripe = threadStripe.get();
+    long[] page = stripe[n >>> STRIPE_PAGE_SHIFT];
+    if (page == null) {
+      page = stripe[n >>> STRIPE_PAGE_SHIFT] = new long[STRIPE_PAGE_SIZE];
+    }
+    page[n & (STRIPE_PAGE_SIZE - 1)]++;
+  }
+
+  /**
+   * Increments the counter for the given block, directly inside the memory-mapped counts file.
+   * <p>
+   * Every increment is written to the operating system's page cache,
+   * so the counts survive a crash, an <code>OutOfMemoryError</code>, <code>Runtime.halt</code> or <code>kill -9</code>
+   * of the profiled program without the need of a final {@link #save}.
+   * Like {@link #inc}, the increment is not synchronized.
+   *
+   * @param n the block id
+   */
+  public static void incMapped(int n) {
+    if (!enabled || !isCounted(n)) return;
+    MappedByteBuffer buffer = MappedCounts.buffer;
+    int index = Integer.BYTES + (n << 3);
+    buffer.putLong(index, buffer.getLong(index) + 1);
+  }
+
+  /**
+   * Adds the given number of hits to the counter of the given block.
+   * <p>
+   * Used with hoisted loop counters: the iterations of a loop are counted in a local variable,
+   * which is added once the loop is left. Like {@link #inc}, the addition is not synchronized.
+   *
+   * @param n    the block id
+   * @param hits the number of hits to add
+   */
+  public static void add(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    BlockCounts.counts[n] += hits;
+  }
+
+  /**
+   * Synchronized version of {@link #add}.
+   */
+  public static void addSync(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    long ignored = (long) ATOMIC_COUNT.getAndAdd(SyncCounts.counts, n, hits);
+  }
+
+  /**
+   * Sampled version of {@link #add}. The hits of a loop are added exactly to the synchronized counters,
+   * without sampling them, as they are added only once per execution of the loop statement.
+   */
+  public static void addSampled(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    long ignored = (long) ATOMIC_COUNT.getAndAdd(SyncCounts.counts, n, hits);
+  }
+
+  /**
+   * Compact version of {@link #add}, promoting the overflows of the compact counter like {@link #incCompact}.
+   */
+  public static void addCompact(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    long sum = Integer.toUnsignedLong(CompactCounts.counts[n]) + hits;
+    CompactCounts.counts[n] = (int) sum;
+    if (sum >>> 32 != 0) {
+      promoteOverflow(n, sum & 0xFFFFFFFF00000000L);
+    }
+  }
+
+  /**
+   * Coverage-only version of {@link #add}, marking the block as covered if it was hit at all.
+   */
+  public static void addCoverage(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    if (hits > 0) {
+      incCoverage(n);
+    }
+  }
+
+  /**
+   * Thread-striped version of {@link #add}.
+   */
+  public static void addStriped(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    long[][] stripe = threadStripe.get();
+    long[] page = stripe[n >>> STRIPE_PAGE_SHIFT];
+    if (page == null) {
+      page = stripe[n >>> STRIPE_PAGE_SHIFT] = new long[STRIPE_PAGE_SIZE];
+    }
+    page[n & (STRIPE_PAGE_SIZE - 1)] += hits;
+  }
+
+  /**
+   * Memory-mapped version of {@link #add}.
+   */
+  public static void addMapped(int n, long hits) {
+    if (!enabled || !isCounted(n)) return;
+    MappedByteBuffer buffer = MappedCounts.buffer;
+    int index = Integer.BYTES + (n << 3);
+    buffer.putLong(index, buffer.getLong(index) + hits);
+  }
+
+  /**
+   * Records the entry into a timed block (method, constructor or lambda) by the current thread.
+   * Must be followed by a call to {@link #exit} for the same block, which is ensured by a <code>finally</code> block.
+   * <p>
+   * The entry is also recorded for blocks of disabled classes, so the timing stack stays balanced
+   * when a class is toggled while one of its blocks is executed.
+   */
+  public static void enter() {
+    if (!enabled) return;
+    threadTimingStack.get().push(currentTime());
+  }
+
+  /**
+   * Records the exit from the most recently entered timed block of the current thread.
+   * <p>
+   * The elapsed time since the entry is added to the total time of the block.
+   * Its self-time excludes the time spent in timed blocks entered in between (i.e. called methods and lambdas).
+   * In case of recursion, the time of every nested invocation is also added to the total time of the block.
+   * The time of blocks of disabled classes is not added, but still excluded from the self-time of their callers.
+   *
+   * @param n the block id
+   */
+  public static void exit(int n) {
+    if (!enabled) return;
+    long end = currentTime();
+    threadTimingStack.get().pop(n, end, isCounted(n));
+  }
+
+  /**
+   * Records the call of a method (or constructor) by the current thread.
+   * The call is counted on the edge from the currently executed method, if there is one.
+   * Must be followed by a call to {@link #ret}, which is ensured by a <code>finally</code> block.
+   * Calls of methods of disabled classes are not counted, but still pushed to keep the call stack balanced.
+   *
+   * @param n the block id of the method body
+   */
+  public static void call(int n) {
+    if (!enabled) return;
+    threadCallStack.get().push(n, isCounted(n));
+  }
+
+  /**
+   * Records the return from the currently executed method of the current thread.
+   */
+  public static void ret() {
+    if (!enabled) return;
+    threadCallStack.get().depth--;
+  }
+
+  /**
+   * Counts the execution of a path through a method with few paths, called when the method is exited by any path.
+   * <p>
+   * The number of paths is known at instrumentation time, so the method's histogram is a dense array
+   * with one counter per path id, which is incremented without any allocation or hash lookup.
+   *
+   * @param n          the block id of the method body
+   * @param path       the path id, accumulated in the method's path register
+   * @param pathsCount the number of paths through the method
+   */
+  public static void pathDense(int n, long path, int pathsCount) {
+    if (!enabled || !isCounted(n)) return;
+    long[] histogram = Paths.histograms.get(n);
+    if (histogram == null) {
+      Paths.histograms.compareAndSet(n, null, new long[pathsCount]);
+      histogram = Paths.histograms.get(n);
+    }
+    long ignored = (long) ATOMIC_COUNT.getAndAdd(histogram, (int) path, 1L);
+  }
+
+  /**
+   * Counts the execution of a path through a method with many paths, called when the method is exited by any path.
+   * The path is counted in the {@link PathTable} of the current thread.
+   *
+   * @param n    the block id of the method body
+   * @param path the path id, accumulated in the method's path register
+   */
+  public static void path(int n, long path) {
+    if (!enabled || !isCounted(n)) return;
+    threadPathTable.get().count(n, path);
+  }
+
+  /**
+   * Returns the current time of the timing mode's clock in nanoseconds.
+   *
+   * @return the CPU time of the current thread in the CPU timing mode, the wall-clock time otherwise
+   */
+  private static long currentTime() {
+    return cpuTimer != null ? cpuTimer.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  /**
+   * Creates and registers the counter-stripe for a new thread.
+   * <p>
+   * Pages are only allocated on the first increment of any of their blocks,
+   * so threads executing only a small part of the program stay cheap in memory.
+   *
+   * @return an array with one (initially unallocated) page for every {@link #STRIPE_PAGE_SIZE} blocks
+   */
+  private static long[][] newStripe() {
+    long[][] stripe = new long[(nBlocks + STRIPE_PAGE_SIZE - 1) >>> STRIPE_PAGE_SHIFT][];
+    allStripes.add(stripe);
+    return stripe;
+  }
+
+  /**
+   * Starts a background thread writing a snapshot of all counters to the given directory at a fixed rate.
+   * <p>
+   * Each snapshot has the format of the counts file and contains the accumulated counts since the program start.
+   * It is named after the milliseconds elapsed since the initialization of this class,
+   * e.g. <code>counts-60000.dat</code>.
+   * The counters are read while the program continues to run, so no thread is ever stopped or synchronized.
+   * Snapshots of a previous run are deleted first.
+   *
+   * @param dirName  the location of the snapshots directory
+   * @param interval the snapshot interval in milliseconds, no snapshots are written if it is not positive
+   */
+  private static void startSnapshots(@SuppressWarnings("SameParameterValue") String dirName, long interval) {
+    if (interval <= 0) {
+      return;
+    }
+    File dir = new File(dirName);
+    File[] oldSnapshots = dir.listFiles();
+    if (oldSnapshots != null) {
+      for (File oldSnapshot : oldSnapshots) {
+        //noinspection ResultOfMethodCallIgnored
+        oldSnapshot.delete();
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "__Counter-snapshots");
+      thread.setDaemon(true);
+      return thread;
+    });
+    snapshotExecutor.scheduleAtFixedRate(() -> {
+      // an exception would cancel all further snapshots, so a failed snapshot is only reported
+      try {
+        writeSnapshot(dir);
+      } catch (RuntimeException e) {
+        System.err.println("Failed to write counts snapshot: " + e);
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
   }
 
-  private static long[] blockCounts;
-  private static AtomicLongArray atomicBlockCounts;
-
   /**
-   * Increments the counter for the given block.
+   * Writes a snapshot of all counters to the given directory.
+   * <p>
+   * The snapshot is named after the milliseconds elapsed since the initialization of this class.
+   * It is written to a temporary file first and then renamed, so readers never see a partially written snapshot.
+   * If the file system does not support atomic renames, the file is renamed non-atomically instead.
+   * If writing fails, the temporary file is deleted.
    *
-   * @param n the block id
+   * @param dir the snapshots directory
+   * @return the written snapshot file
    */
-  public static void inc(int n) {
-    blockCounts[n]++;
+  private static File writeSnapshot(File dir) {
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    File snapshot = new File(dir, "counts-" + elapsedMillis + ".dat");
+    File tmpSnapshot = new File(dir, snapshot.getName() + ".tmp");
+    try {
+      writeCounts(collectCounts(), tmpSnapshot);
+      try {
+        Files.move(tmpSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException | RuntimeException e) {
+      //noinspection ResultOfMethodCallIgnored
+      tmpSnapshot.delete();
+      throw e instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e);
+    }
+    return snapshot;
   }
 
   /**
-   * Increments the counter for the given block, in a synchronized way.
-   *
-   * @param n the block id
+   * Saves the counts, the execution times, the call graph and the paths to the output directory.
    */
-  public static void incSync(int n) {
-    atomicBlockCounts.incrementAndGet(n);
+  private static void saveAll() {
+    save(outputDir + "/counts.dat");
+    saveTiming(outputDir + "/timing.dat");
+    saveCallGraph(outputDir + "/callgraph.dat");
+    savePaths(outputDir + "/paths.dat");
   }
 
   /**
-   * Initializes the counter-arrays with the given number of blocks.
+   * Finishes a run of the instrumented program inside the profiler's JVM,
+   * called by the profiler (via reflection) after the main method returned.
    * <p>
-   * The number of blocks is the first value of the metadata file.
-   * One array is used for regular counters and one synchronized ones,
-   * incremented by {@link #incSync}.
+   * If the <code>profiler.inProcess</code> system property is <code>true</code>, no shutdown hook is registered,
+   * as the JVM keeps running. Instead, the snapshots and the control file checks are stopped
+   * and the MBean is unregistered, so they do not keep the class loader of the program alive.
+   * All results are saved here, like the shutdown hook would. The final counts are also returned,
+   * so the profiler does not need to read the counts file again.
    *
-   * @param fileName the location of the metadata file
+   * @return a new array with one count per block
    */
-  private static void init(@SuppressWarnings("SameParameterValue") String fileName) {
-    File file = new File(fileName);
-    if (!file.exists()) {
-      throw new RuntimeException("Metadata not found at expected path: " + file.getAbsolutePath());
+  public static long[] finishInProcess() {
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdownNow();
     }
-    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-      int nBlocks = ois.readInt(); // number of blocks is the first value of the metadata file
-      blockCounts = new long[nBlocks];
-      atomicBlockCounts = new AtomicLongArray(nBlocks);
-    } catch (IOException | NumberFormatException e) {
-      throw new RuntimeException(e);
+    if (controlFileExecutor != null) {
+      controlFileExecutor.shutdownNow();
     }
+    unregisterMBean();
+    if (enabled) {
+      saveAll();
+    }
+    return collectCounts();
   }
 
   /**
    * Saves the counter-array to the given file.
    * <p>
-   * The final count for each block is the sum of the regular and synchronized counters.
-   * Every counter is either synchronized or not, so only ever one of the two array values is non-zero.
+   * If memory-mapped counters are used, the counts file already contains the final counts
+   * and is only flushed to the storage device.
    *
    * @param fileName the location of the file to save the counter-array to
    */
   private static void save(@SuppressWarnings("SameParameterValue") String fileName) {
-    try (DataOutputStream dis = new DataOutputStream(new FileOutputStream(fileName))) {
-      dis.writeInt(blockCounts.length);
-      for (int i = 0; i < blockCounts.length; i++) {
-        dis.writeLong(blockCounts[i] + atomicBlockCounts.get(i));
+    if (countsMapped) {
+      MappedCounts.buffer.force();
+      return;
+    }
+    writeCounts(collectCounts(), new File(fileName));
+  }
+
+  /**
+   * Saves the accumulated total and self-times of all timed blocks to the given file,
+   * if the program was instrumented with a timing mode.
+   * <p>
+   * The file contains the number of blocks, followed by one total time per block and one self-time per block,
+   * all in nanoseconds. The times of all threads are summed up.
+   *
+   * @param fileName the location of the file to save the times to
+   */
+  private static void saveTiming(@SuppressWarnings("SameParameterValue") String fileName) {
+    if (timingMode == 0) {
+      return;
+    }
+    long[] times = new long[2 * nBlocks];
+    for (TimingStack stack : allTimingStacks) {
+      for (int p = 0; p < stack.totalPages.length; p++) {
+        if (stack.totalPages[p] == null) continue;
+        int offset = p << STRIPE_PAGE_SHIFT;
+        for (int i = 0; i < STRIPE_PAGE_SIZE && offset + i < nBlocks; i++) {
+          times[offset + i] += stack.totalPages[p][i];
+          times[nBlocks + offset + i] += stack.selfPages[p][i];
+        }
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + times.length * Long.BYTES);
+    buffer.putInt(nBlocks);
+    buffer.asLongBuffer().put(times);
+    buffer.rewind();
+    try (FileChannel channel = new FileOutputStream(fileName).getChannel()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Saves the counted calls between methods to the given file, if the program was instrumented to count them.
+   * <p>
+   * The file contains the number of edges, followed by the caller id, the callee id and the number of calls
+   * for every edge. The ids are the block ids of the method bodies. The edges of all threads are summed up.
+   *
+   * @param fileName the location of the file to save the call graph to
+   */
+  private static void saveCallGraph(@SuppressWarnings("SameParameterValue") String fileName) {
+    if (!callGraph) {
+      return;
+    }
+    Map<Long, Long> allEdges = new HashMap<>();
+    for (CallStack stack : allCallStacks) {
+      long[] table = stack.edges;
+      for (int i = 0; i < table.length; i += 2) {
+        if (table[i] != 0) {
+          allEdges.merge(table[i], table[i + 1], Long::sum);
+        }
+      }
+    }
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+      dos.writeInt(allEdges.size());
+      for (Map.Entry<Long, Long> edge : allEdges.entrySet()) {
+        dos.writeInt((int) (edge.getKey() >>> 32) - 1);
+        dos.writeInt((int) (long) edge.getKey());
+        dos.writeLong(edge.getValue());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Saves the path histograms to the given file, if paths are counted.
+   * <p>
+   * The file contains the number of counted paths, followed by the method id, the path id and the number of
+   * executions for every path. The method ids are the block ids of the method bodies.
+   * The paths counted in dense histograms and in the path tables of all threads are summed up.
+   *
+   * @param fileName the location of the file to save the paths to
+   */
+  private static void savePaths(@SuppressWarnings("SameParameterValue") String fileName) {
+    if (!paths) {
+      return;
+    }
+    // copied first, as other threads may still take new paths while the file is written
+    List<long[]> allPaths = new ArrayList<>();
+    for (int n = 0; n < nBlocks; n++) {
+      long[] histogram = Paths.histograms.get(n);
+      if (histogram == null) continue;
+      for (int path = 0; path < histogram.length; path++) {
+        if (histogram[path] != 0) {
+          allPaths.add(new long[]{n, path, histogram[path]});
+        }
+      }
+    }
+    Map<Integer, Map<Long, Long>> tablePaths = new HashMap<>();
+    for (PathTable pathTable : allPathTables) {
+      long[] table = pathTable.entries;
+      for (int i = 0; i < table.length; i += 3) {
+        if (table[i] != 0 && table[i + 2] != 0) {
+          tablePaths.computeIfAbsent((int) table[i] - 1, k -> new HashMap<>()).merge(table[i + 1], table[i + 2], Long::sum);
+        }
+      }
+    }
+    tablePaths.forEach((n, histogram) -> histogram.forEach((path, count) -> allPaths.add(new long[]{n, path, count})));
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+      dos.writeInt(allPaths.size());
+      for (long[] path : allPaths) {
+        dos.writeInt((int) path[0]);
+        dos.writeLong(path[1]);
+        dos.writeLong(path[2]);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Collects the current values of all counters.
+   * <p>
+   * The final count for each block is the sum of the regular, synchronized, scaled sampled, compact
+   * and thread-striped counters. Covered blocks without any of these counters are counted once.
+   * Every counter uses only one increment flavour, so only ever one of the values is non-zero.
+   * Counter-arrays of flavours that were never used are not allocated and skipped.
+   * If memory-mapped counters are used, their values are read from the mapped counts file.
+   * <p>
+   * All counters are copied in bulk while the program continues to run, without any synchronization.
+   * This keeps the impact on the profiled program small, even if the counts are collected frequently.
+   *
+   * @return a new array with one count per block
+   */
+  private static long[] collectCounts() {
+    long[] counts = new long[nBlocks];
+    if (countsMapped) {
+      MappedCounts.buffer.slice(Integer.BYTES, counts.length * Long.BYTES).asLongBuffer().get(counts);
+      return counts;
+    }
+    long[] regular = blockCounts;
+    if (regular != null) {
+      System.arraycopy(regular, 0, counts, 0, counts.length);
+    }
+    long[] sync = syncBlockCounts;
+    if (sync != null) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += sync[i];
+      }
+    }
+    long[] sampled = sampledBlockCounts;
+    if (sampled != null) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += sampled[i] * samplingRate;
+      }
+    }
+    int[] compact = compactBlockCounts;
+    if (compact != null) {
+      long[] overflow = compactOverflowCounts;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += Integer.toUnsignedLong(compact[i]) + (overflow != null ? overflow[i] : 0);
+      }
+    }
+    byte[] covered = coveredBlocks;
+    if (covered != null) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += covered[i];
+      }
+    }
+    for (long[][] stripe : allStripes) {
+      for (int p = 0; p < stripe.length; p++) {
+        long[] page = stripe[p];
+        if (page == null) continue;
+        int offset = p << STRIPE_PAGE_SHIFT;
+        for (int i = 0; i < page.length && offset + i < counts.length; i++) {
+          counts[offset + i] += page[i];
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Writes the given counts to a file: the number of blocks followed by one long per block.
+   *
+   * @param counts the count of each block
+   * @param file   the file to write the counts to
+   */
+  private static void writeCounts(long[] counts, File file) {
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + counts.length * Long.BYTES);
+    buffer.putInt(counts.length);
+    buffer.asLongBuffer().put(counts);
+    buffer.rewind();
+    try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Sets all counters to zero.
+   * <p>
+   * Increments executed concurrently by other threads may be lost.
+   */
+  private static void reset() {
+    if (blockCounts != null) {
+      Arrays.fill(blockCounts, 0);
+    }
+    for (long[] atomicCounts : new long[][]{syncBlockCounts, sampledBlockCounts}) {
+      if (atomicCounts == null) continue;
+      for (int i = 0; i < atomicCounts.length; i++) {
+        ATOMIC_COUNT.setVolatile(atomicCounts, i, 0L);
+      }
+    }
+    if (compactBlockCounts != null) {
+      Arrays.fill(compactBlockCounts, 0);
+      synchronized (__Counter.class) {
+        compactOverflowCounts = null;
+      }
+    }
+    if (coveredBlocks != null) {
+      Arrays.fill(coveredBlocks, (byte) 0);
+    }
+    for (long[][] stripe : allStripes) {
+      for (long[] page : stripe) {
+        if (page != null) Arrays.fill(page, 0);
       }
-    } catch (IOException | NumberFormatException e) {
+    }
+    if (countsMapped) {
+      MappedCounts.buffer.slice(Integer.BYTES, nBlocks * Long.BYTES).asLongBuffer().put(new long[nBlocks]);
+    }
+  }
+
+  /**
+   * Management interface of the counters, to query and control them while the instrumented program is running.
+   * <p>
+   * It is registered at the platform MBean server as <code>auxiliary:type=__Counter</code>
+   * if the <code>profiler.jmx</code> system property is <code>true</code>,
+   * and can then be accessed with any JMX client, e.g. <code>jconsole</code>.
+   */
+  public interface CountersMXBean {
+    /**
+     * {@return a copy of the current count of each block}
+     */
+    long[] getCounts();
+
+    /**
+     * Sets all counters to zero.
+     */
+    void reset();
+
+    /**
+     * Writes a snapshot of all counters to the snapshots directory.
+     *
+     * @return the path of the written snapshot file
+     */
+    String snapshot();
+
+    /**
+     * {@return the fully qualified names of the disabled classes and packages}
+     */
+    String[] getDisabled();
+
+    /**
+     * Stops counting the hits of the blocks of a class or package,
+     * including its nested classes or the classes of its subpackages.
+     *
+     * @param name the fully qualified class or package name, with nested classes separated by <code>$</code>
+     */
+    void disable(String name);
+
+    /**
+     * Counts the hits of the blocks of a previously disabled class or package again.
+     *
+     * @param name the fully qualified class or package name, as it was disabled
+     */
+    void enable(String name);
+  }
+
+  /**
+   * The object name of the {@link CountersMXBean} at the platform MBean server.
+   */
+  private static final String MBEAN_NAME = "auxiliary:type=__Counter";
+  private static boolean mBeanRegistered;
+
+  /**
+   * Implementation of the {@link CountersMXBean} delegating to the static counter methods.
+   */
+  private static class Counters implements CountersMXBean {
+    @Override
+    public long[] getCounts() {
+      return collectCounts();
+    }
+
+    @Override
+    public void reset() {
+      __Counter.reset();
+    }
+
+    @Override
+    public String snapshot() {
+      File dir = new File(outputDir + "/snapshots");
+      //noinspection ResultOfMethodCallIgnored
+      dir.mkdirs();
+      return writeSnapshot(dir).getAbsolutePath();
+    }
+
+    @Override
+    public String[] getDisabled() {
+      return disabledClasses.stream().sorted().toArray(String[]::new);
+    }
+
+    @Override
+    public void disable(String name) {
+      disabledClasses.add(name);
+      applyToggles();
+    }
+
+    @Override
+    public void enable(String name) {
+      disabledClasses.remove(name);
+      applyToggles();
+    }
+  }
+
+  /**
+   * Registers the {@link CountersMXBean} at the platform MBean server.
+   */
+  private static void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new Counters(), new ObjectName(MBEAN_NAME));
+      mBeanRegistered = true;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Unregisters the {@link CountersMXBean} from the platform MBean server, if it was registered.
+   * Otherwise, the server would keep the class loader of the program alive,
+   * and the next program run in the same process could not register its own MBean.
+   */
+  private static void unregisterMBean() {
+    if (!mBeanRegistered) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+      mBeanRegistered = false;
+    } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
@@ -110,4 +1593,223 @@ public class __Counter {
     __Counter.incSync(n);
     return function.get();
   }
+
+  /**
+   * Thread-striped version of {@link #incLambda(int, Runnable)}.
+   */
+  public static void incLambdaStriped(int n, Runnable method) {
+    __Counter.incStriped(n);
+    method.run();
+  }
+
+  /**
+   * Thread-striped version of {@link #incLambda(int, Supplier)}.
+   */
+  public static <T> T incLambdaStriped(int n, Supplier<T> function) {
+    __Counter.incStriped(n);
+    return function.get();
+  }
+
+  /**
+   * Memory-mapped version of {@link #incLambda(int, Runnable)}.
+   */
+  public static void incLambdaMapped(int n, Runnable method) {
+    __Counter.incMapped(n);
+    method.run();
+  }
+
+  /**
+   * Memory-mapped version of {@link #incLambda(int, Supplier)}.
+   */
+  public static <T> T incLambdaMapped(int n, Supplier<T> function) {
+    __Counter.incMapped(n);
+    return function.get();
+  }
+
+  /**
+   * Sampled version of {@link #incLambda(int, Runnable)}.
+   */
+  public static void incLambdaSampled(int n, Runnable method) {
+    __Counter.incSampled(n);
+    method.run();
+  }
+
+  /**
+   * Sampled version of {@link #incLambda(int, Supplier)}.
+   */
+  public static <T> T incLambdaSampled(int n, Supplier<T> function) {
+    __Counter.incSampled(n);
+    return function.get();
+  }
+
+  /**
+   * Compact version of {@link #incLambda(int, Runnable)}.
+   */
+  public static void incLambdaCompact(int n, Runnable method) {
+    __Counter.incCompact(n);
+    method.run();
+  }
+
+  /**
+   * Compact version of {@link #incLambda(int, Supplier)}.
+   */
+  public static <T> T incLambdaCompact(int n, Supplier<T> function) {
+    __Counter.incCompact(n);
+    return function.get();
+  }
+
+  /**
+   * Coverage-only version of {@link #incLambda(int, Runnable)}.
+   */
+  public static void incLambdaCoverage(int n, Runnable method) {
+    __Counter.incCoverage(n);
+    method.run();
+  }
+
+  /**
+   * Coverage-only version of {@link #incLambda(int, Supplier)}.
+   */
+  public static <T> T incLambdaCoverage(int n, Supplier<T> function) {
+    __Counter.incCoverage(n);
+    return function.get();
+  }
+
+  /**
+   * Executes the given lambda <code>Runnable</code> between {@link #enter} and {@link #exit}.
+   *
+   * @param n      the block id
+   * @param method the lambda <code>Runnable</code> to execute
+   */
+  private static void timeLambda(int n, Runnable method) {
+    enter();
+    try {
+      method.run();
+    } finally {
+      exit(n);
+    }
+  }
+
+  /**
+   * Overloaded version of {@link #timeLambda(int, Runnable)} using a Supplier with a generic return type.
+   */
+  private static <T> T timeLambda(int n, Supplier<T> function) {
+    enter();
+    try {
+      return function.get();
+    } finally {
+      exit(n);
+    }
+  }
+
+  /**
+   * Timed version of {@link #incLambda(int, Runnable)}, also measuring the execution time of the lambda.
+   */
+  public static void incLambdaTimed(int n, Runnable method) {
+    __Counter.inc(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambda(int, Supplier)}, also measuring the execution time of the lambda.
+   */
+  public static <T> T incLambdaTimed(int n, Supplier<T> function) {
+    __Counter.inc(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaSync(int, Runnable)}.
+   */
+  public static void incLambdaSyncTimed(int n, Runnable method) {
+    __Counter.incSync(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaSync(int, Supplier)}.
+   */
+  public static <T> T incLambdaSyncTimed(int n, Supplier<T> function) {
+    __Counter.incSync(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaStriped(int, Runnable)}.
+   */
+  public static void incLambdaStripedTimed(int n, Runnable method) {
+    __Counter.incStriped(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaStriped(int, Supplier)}.
+   */
+  public static <T> T incLambdaStripedTimed(int n, Supplier<T> function) {
+    __Counter.incStriped(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaMapped(int, Runnable)}.
+   */
+  public static void incLambdaMappedTimed(int n, Runnable method) {
+    __Counter.incMapped(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaMapped(int, Supplier)}.
+   */
+  public static <T> T incLambdaMappedTimed(int n, Supplier<T> function) {
+    __Counter.incMapped(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaSampled(int, Runnable)}.
+   */
+  public static void incLambdaSampledTimed(int n, Runnable method) {
+    __Counter.incSampled(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaSampled(int, Supplier)}.
+   */
+  public static <T> T incLambdaSampledTimed(int n, Supplier<T> function) {
+    __Counter.incSampled(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaCompact(int, Runnable)}.
+   */
+  public static void incLambdaCompactTimed(int n, Runnable method) {
+    __Counter.incCompact(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaCompact(int, Supplier)}.
+   */
+  public static <T> T incLambdaCompactTimed(int n, Supplier<T> function) {
+    __Counter.incCompact(n);
+    return timeLambda(n, function);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaCoverage(int, Runnable)}.
+   */
+  public static void incLambdaCoverageTimed(int n, Runnable method) {
+    __Counter.incCoverage(n);
+    timeLambda(n, method);
+  }
+
+  /**
+   * Timed version of {@link #incLambdaCoverage(int, Supplier)}.
+   */
+  public static <T> T incLambdaCoverageTimed(int n, Supplier<T> function) {
+    __Counter.incCoverage(n);
+    return timeLambda(n, function);
+  }
 }
@@ -2,4 +2,6 @@ module tool {
   exports tool.model;
   exports tool.cli;
   requires common;
+  requires java.management;
+  requires java.compiler;
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package tool.cli;
 
+import common.CounterMode;
 import common.RunMode;
+import common.TimingMode;
 import common.Util;
+import tool.profile.ReportFilter;
+import tool.profile.TimeWindow;
 
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -12,16 +16,36 @@ import java.util.Objects;
  * @param runMode one of {@link RunMode}
  * @param targetPath the path to the main Java file (or directory for instrument-only mode)
  * @param sourcesDir the directory with additional Java files to instrument
- * @param syncCounters whether to instrument using synchronized counter-increments
+ * @param counterMode the counter-increment flavour to instrument with (one of {@link CounterMode})
+ * @param samplingRate on average, only every n-th hit is counted in the sampled counter mode (1 otherwise)
+ * @param timingMode the clock to time method executions with (one of {@link TimingMode})
+ * @param callGraph whether to count the calls between methods to build a call graph
+ * @param minimalCounters whether to instrument only blocks whose hits cannot be derived from other counts
+ * @param hoistLoopCounters whether to count loop iterations in local variables, added to the counters when the loop is left
+ * @param paths whether to count the acyclic paths taken through each method
  * @param verboseOutput whether to output verbose info about instrumentation of files
+ * @param inProcess whether to run the instrumented program inside the profiler's JVM
+ * @param snapshotInterval the interval in milliseconds for writing counts snapshots during the run (0 for none)
+ * @param reportWindow the time window of the run to generate the report for (<code>null</code> for the whole run)
+ * @param reportFilter the packages and paths of the files to generate the report for (<code>null</code> for all files)
  * @param programArgs the program arguments to pass to the main method
  */
 public record Arguments(
     RunMode runMode,
     Path targetPath,
     Path sourcesDir,
-    boolean syncCounters,
+    CounterMode counterMode,
+    int samplingRate,
+    TimingMode timingMode,
+    boolean callGraph,
+    boolean minimalCounters,
+    boolean hoistLoopCounters,
+    boolean paths,
     boolean verboseOutput,
+    boolean inProcess,
+    long snapshotInterval,
+    TimeWindow reportWindow,
+    ReportFilter reportFilter,
     String[] programArgs) {
 
   /**
@@ -34,10 +58,7 @@ public record Arguments(
     if (args.length == 0) {
       throw new IllegalArgumentException("No arguments specified.");
     }
-    RunMode runMode = RunMode.DEFAULT;
-    boolean syncCounters = false;
-    boolean verboseOutput = false;
-    Path sourcesDir = null;
+    Builder builder = new Builder();
     int i = 0;
     for (; i < args.length; i++) {
       if (!args[i].startsWith("-")) {
@@ -48,41 +69,102 @@ public record Arguments(
           printUsage();
           return null;
         }
-        case "-s", "--synchronized" -> syncCounters = true;
-        case "-v", "--verbose" -> verboseOutput = true;
-        case "-i", "--instrument-only" -> {
-          if (runMode != RunMode.DEFAULT) {
-            throw new IllegalArgumentException("Multiple run modes specified.");
+        case "-s", "--synchronized" -> builder.setCounterMode(CounterMode.SYNCHRONIZED);
+        case "-t", "--striped" -> builder.setCounterMode(CounterMode.STRIPED);
+        case "-m", "--mapped" -> builder.setCounterMode(CounterMode.MAPPED);
+        case "-k", "--compact" -> builder.setCounterMode(CounterMode.COMPACT);
+        case "-o", "--coverage-only" -> builder.setCounterMode(CounterMode.COVERAGE);
+        case "-n", "--sampled" -> {
+          builder.setCounterMode(CounterMode.SAMPLED);
+          i++;
+          if (i == args.length) { // no additional argument
+            throw new IllegalArgumentException("No sampling rate specified.");
+          }
+          int samplingRate;
+          try {
+            samplingRate = Integer.parseInt(args[i]);
+          } catch (NumberFormatException e) {
+            samplingRate = -1;
+          }
+          if (samplingRate < 1 || samplingRate > 1 << 30) {
+            throw new IllegalArgumentException("Invalid sampling rate: " + args[i]);
           }
-          runMode = RunMode.INSTRUMENT_ONLY;
+          builder.setSamplingRate(samplingRate);
         }
-        case "-r", "--generate-report" -> {
-          if (runMode != RunMode.DEFAULT) {
-            throw new IllegalArgumentException("Multiple run modes specified.");
+        case "-T", "--timing" -> {
+          i++;
+          if (i == args.length) { // no additional argument
+            throw new IllegalArgumentException("No timing mode specified.");
           }
-          runMode = RunMode.REPORT_ONLY;
+          builder.setTimingMode(switch (args[i]) {
+            case "wall" -> TimingMode.WALL;
+            case "cpu" -> TimingMode.CPU;
+            default -> throw new IllegalArgumentException("Invalid timing mode: " + args[i]);
+          });
         }
+        case "-c", "--call-graph" -> builder.setCallGraph(true);
+        case "-M", "--minimal-counters" -> builder.setMinimalCounters(true);
+        case "-H", "--hoist-loop-counters" -> builder.setHoistLoopCounters(true);
+        case "-P", "--paths" -> builder.setPaths(true);
+        case "-v", "--verbose" -> builder.setVerboseOutput(true);
+        case "-l", "--in-process" -> builder.setInProcess(true);
+        case "-i", "--instrument-only" -> builder.setRunMode(RunMode.INSTRUMENT_ONLY);
+        case "-r", "--generate-report" -> builder.setRunMode(RunMode.REPORT_ONLY);
         case "-d", "--sources-directory" -> {
           i++;
           if (i == args.length) { // no additional argument
             throw new IllegalArgumentException("No sources directory specified.");
           }
-          sourcesDir = Path.of(args[i]);
+          Path sourcesDir = Path.of(args[i]);
           if (!sourcesDir.toFile().isDirectory()) {
             throw new IllegalArgumentException("Not a directory: " + sourcesDir.toAbsolutePath().normalize());
           }
+          builder.setSourcesDir(sourcesDir);
+        }
+        case "-p", "--snapshot-interval" -> {
+          i++;
+          if (i == args.length) { // no additional argument
+            throw new IllegalArgumentException("No snapshot interval specified.");
+          }
+          long snapshotInterval;
+          try {
+            snapshotInterval = Long.parseLong(args[i]);
+          } catch (NumberFormatException e) {
+            snapshotInterval = -1;
+          }
+          if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("Invalid snapshot interval: " + args[i]);
+          }
+          builder.setSnapshotInterval(snapshotInterval);
+        }
+        case "-w", "--window" -> {
+          i++;
+          if (i == args.length) { // no additional argument
+            throw new IllegalArgumentException("No time window specified.");
+          }
+          builder.setReportWindow(TimeWindow.parse(args[i]));
+        }
+        case "-f", "--filter" -> {
+          i++;
+          if (i == args.length) { // no additional argument
+            throw new IllegalArgumentException("No report filter specified.");
+          }
+          builder.setReportFilter(ReportFilter.parse(args[i]));
         }
         default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
       }
     }
+    if (builder.minimalCounters && builder.counterMode == CounterMode.COVERAGE) {
+      throw new IllegalArgumentException("Minimal counters cannot be combined with coverage-only counters.");
+    }
     String[] remainingArgs = Arrays.copyOfRange(args, i, args.length);
     Path targetPath = null;
-    String[] programArgs = null;
     if (remainingArgs.length > 0) {
       targetPath = Path.of(remainingArgs[0]);
+      builder.setTargetPath(targetPath);
     }
     // additional validations
-    switch (runMode) {
+    switch (builder.runMode) {
       case REPORT_ONLY -> {
         if (remainingArgs.length > 0) {
           throw new IllegalArgumentException("No arguments allowed for the report-only run mode.");
@@ -100,15 +182,15 @@ public record Arguments(
         if (!Util.isJavaFile(targetPath)) {
           throw new IllegalArgumentException("Not a Java source file: " + targetPath.toAbsolutePath().normalize());
         }
-        if (sourcesDir != null && !Util.isAncestorOf(sourcesDir, targetPath)) {
+        if (builder.sourcesDir != null && !Util.isAncestorOf(builder.sourcesDir, targetPath)) {
           throw new IllegalArgumentException("Main file must be located inside the sources directory or in any child directory.");
         }
         if (remainingArgs.length > 1) {
-          programArgs = Arrays.copyOfRange(remainingArgs, 1, remainingArgs.length);
+          builder.setProgramArgs(Arrays.copyOfRange(remainingArgs, 1, remainingArgs.length));
         }
       }
     }
-    return new Arguments(runMode, targetPath, sourcesDir, syncCounters, verboseOutput, programArgs);
+    return builder.build();
   }
 
   public static void printUsage() {
@@ -122,8 +204,22 @@ public record Arguments(
         Options:
           -h, --help                        display this message and quit
           -s, --synchronized                instrument using synchronized counter increments
+          -t, --striped                     instrument using thread-striped counter increments
+          -m, --mapped                      instrument using counters in a memory-mapped counts file
+          -n, --sampled <rate>              instrument using counters sampling only every n-th hit on average
+          -k, --compact                     instrument using int counters, promoted to long on overflow
+          -o, --coverage-only               instrument using coverage flags instead of hit counters
+          -T, --timing <wall|cpu>           instrument methods to measure their wall-clock or CPU time
+          -c, --call-graph                  instrument methods to count the calls between them
+          -M, --minimal-counters            instrument only blocks whose hits cannot be derived from other counts
+          -H, --hoist-loop-counters         count loop iterations locally, added to the counters when the loop is left
+          -P, --paths                       instrument methods to count the acyclic paths taken through them
           -v, --verbose                     output verbose info about instrumentation of files
+          -l, --in-process                  run the instrumented program inside the profiler's JVM
           -d, --sources-directory <dir>     directory with additional Java files to instrument
+          -p, --snapshot-interval <ms>      periodically write counts snapshots while the program runs
+          -w, --window <from>:<to>          only report the counts of a time window (in ms) of the run
+          -f, --filter <packages|paths>     only report the files of the given packages or paths (comma-separated)
         Run mode (exclusive):
           -i, --instrument-only <file|dir>  only instrument a single file or directory and exit
           -r, --generate-report             only generate the report from metadata and counts
@@ -142,8 +238,18 @@ public record Arguments(
 
     Arguments arguments = (Arguments) o;
 
-    if (syncCounters != arguments.syncCounters) return false;
+    if (counterMode != arguments.counterMode) return false;
+    if (samplingRate != arguments.samplingRate) return false;
+    if (timingMode != arguments.timingMode) return false;
+    if (callGraph != arguments.callGraph) return false;
+    if (minimalCounters != arguments.minimalCounters) return false;
+    if (hoistLoopCounters != arguments.hoistLoopCounters) return false;
+    if (paths != arguments.paths) return false;
     if (verboseOutput != arguments.verboseOutput) return false;
+    if (inProcess != arguments.inProcess) return false;
+    if (snapshotInterval != arguments.snapshotInterval) return false;
+    if (!Objects.equals(reportWindow, arguments.reportWindow)) return false;
+    if (!Objects.equals(reportFilter, arguments.reportFilter)) return false;
     if (runMode != arguments.runMode) return false;
     if (!Objects.equals(targetPath, arguments.targetPath)) return false;
     if (!Objects.equals(sourcesDir, arguments.sourcesDir)) return false;
@@ -155,9 +261,204 @@ public record Arguments(
     int result = runMode.hashCode();
     result = 31 * result + (targetPath != null ? targetPath.hashCode() : 0);
     result = 31 * result + (sourcesDir != null ? sourcesDir.hashCode() : 0);
-    result = 31 * result + (syncCounters ? 1 : 0);
+    result = 31 * result + counterMode.hashCode();
+    result = 31 * result + samplingRate;
+    result = 31 * result + timingMode.hashCode();
+    result = 31 * result + (callGraph ? 1 : 0);
+    result = 31 * result + (minimalCounters ? 1 : 0);
+    result = 31 * result + (hoistLoopCounters ? 1 : 0);
+    result = 31 * result + (paths ? 1 : 0);
     result = 31 * result + (verboseOutput ? 1 : 0);
+    result = 31 * result + (inProcess ? 1 : 0);
+    result = 31 * result + Long.hashCode(snapshotInterval);
+    result = 31 * result + (reportWindow != null ? reportWindow.hashCode() : 0);
+    result = 31 * result + (reportFilter != null ? reportFilter.hashCode() : 0);
     result = 31 * result + Arrays.hashCode(programArgs);
     return result;
   }
+
+  /**
+   * Builder class for {@link Arguments}, starting from the defaults of a plain <code>profiler &lt;main file&gt;</code> run.
+   * Used by {@link #parse} and by tests, so that only the options that differ from the defaults need to be specified.
+   */
+  public static class Builder {
+    private RunMode runMode = RunMode.DEFAULT;
+    private Path targetPath;
+    private Path sourcesDir;
+    private CounterMode counterMode = CounterMode.DEFAULT;
+    private int samplingRate = 1;
+    private TimingMode timingMode = TimingMode.NONE;
+    private boolean callGraph;
+    private boolean minimalCounters;
+    private boolean hoistLoopCounters;
+    private boolean paths;
+    private boolean verboseOutput;
+    private boolean inProcess;
+    private long snapshotInterval;
+    private TimeWindow reportWindow;
+    private ReportFilter reportFilter;
+    private String[] programArgs;
+
+    /**
+     * Sets the run mode. The run modes are exclusive, so it can be called only once.
+     * @param runMode one of {@link RunMode}
+     * @return the builder object itself for method chaining
+     * @throws IllegalArgumentException if a run mode was already set
+     */
+    public Builder setRunMode(RunMode runMode) {
+      if (this.runMode != RunMode.DEFAULT) {
+        throw new IllegalArgumentException("Multiple run modes specified.");
+      }
+      this.runMode = runMode;
+      return this;
+    }
+
+    /**
+     * @param targetPath the path to the main Java file (or directory for instrument-only mode)
+     * @return the builder object itself for method chaining
+     */
+    public Builder setTargetPath(Path targetPath) {
+      this.targetPath = targetPath;
+      return this;
+    }
+
+    /**
+     * @param sourcesDir the directory with additional Java files to instrument
+     * @return the builder object itself for method chaining
+     */
+    public Builder setSourcesDir(Path sourcesDir) {
+      this.sourcesDir = sourcesDir;
+      return this;
+    }
+
+    /**
+     * Sets the counter mode. The counter modes are exclusive, so it can be called only once.
+     * @param counterMode one of {@link CounterMode}
+     * @return the builder object itself for method chaining
+     * @throws IllegalArgumentException if a counter mode was already set
+     */
+    public Builder setCounterMode(CounterMode counterMode) {
+      if (this.counterMode != CounterMode.DEFAULT) {
+        throw new IllegalArgumentException("Multiple counter modes specified.");
+      }
+      this.counterMode = counterMode;
+      return this;
+    }
+
+    /**
+     * @param samplingRate on average, only every n-th hit is counted in the sampled counter mode
+     * @return the builder object itself for method chaining
+     */
+    public Builder setSamplingRate(int samplingRate) {
+      this.samplingRate = samplingRate;
+      return this;
+    }
+
+    /**
+     * @param timingMode the clock to time method executions with (one of {@link TimingMode})
+     * @return the builder object itself for method chaining
+     */
+    public Builder setTimingMode(TimingMode timingMode) {
+      this.timingMode = timingMode;
+      return this;
+    }
+
+    /**
+     * @param callGraph whether to count the calls between methods to build a call graph
+     * @return the builder object itself for method chaining
+     */
+    public Builder setCallGraph(boolean callGraph) {
+      this.callGraph = callGraph;
+      return this;
+    }
+
+    /**
+     * @param minimalCounters whether to instrument only blocks whose hits cannot be derived from other counts
+     * @return the builder object itself for method chaining
+     */
+    public Builder setMinimalCounters(boolean minimalCounters) {
+      this.minimalCounters = minimalCounters;
+      return this;
+    }
+
+    /**
+     * @param hoistLoopCounters whether to count loop iterations in local variables
+     * @return the builder object itself for method chaining
+     */
+    public Builder setHoistLoopCounters(boolean hoistLoopCounters) {
+      this.hoistLoopCounters = hoistLoopCounters;
+      return this;
+    }
+
+    /**
+     * @param paths whether to count the acyclic paths taken through each method
+     * @return the builder object itself for method chaining
+     */
+    public Builder setPaths(boolean paths) {
+      this.paths = paths;
+      return this;
+    }
+
+    /**
+     * @param verboseOutput whether to output verbose info about instrumentation of files
+     * @return the builder object itself for method chaining
+     */
+    public Builder setVerboseOutput(boolean verboseOutput) {
+      this.verboseOutput = verboseOutput;
+      return this;
+    }
+
+    /**
+     * @param inProcess whether to run the instrumented program inside the profiler's JVM
+     * @return the builder object itself for method chaining
+     */
+    public Builder setInProcess(boolean inProcess) {
+      this.inProcess = inProcess;
+      return this;
+    }
+
+    /**
+     * @param snapshotInterval the interval in milliseconds for writing counts snapshots during the run
+     * @return the builder object itself for method chaining
+     */
+    public Builder setSnapshotInterval(long snapshotInterval) {
+      this.snapshotInterval = snapshotInterval;
+      return this;
+    }
+
+    /**
+     * @param reportWindow the time window of the run to generate the report for
+     * @return the builder object itself for method chaining
+     */
+    public Builder setReportWindow(TimeWindow reportWindow) {
+      this.reportWindow = reportWindow;
+      return this;
+    }
+
+    /**
+     * @param reportFilter the packages and paths of the files to generate the report for
+     * @return the builder object itself for method chaining
+     */
+    public Builder setReportFilter(ReportFilter reportFilter) {
+      this.reportFilter = reportFilter;
+      return this;
+    }
+
+    /**
+     * @param programArgs the program arguments to pass to the main method
+     * @return the builder object itself for method chaining
+     */
+    public Builder setProgramArgs(String... programArgs) {
+      this.programArgs = programArgs;
+      return this;
+    }
+
+    /**
+     * Creates the {@link Arguments} record from the values set so far.
+     * @return the arguments record
+     */
+    public Arguments build() {
+      return new Arguments(runMode, targetPath, sourcesDir, counterMode, samplingRate, timingMode, callGraph, minimalCounters, hoistLoopCounters, paths, verboseOutput, inProcess, snapshotInterval, reportWindow, reportFilter, programArgs);
+    }
+  }
 }
@@ -29,15 +29,15 @@ public class Main {
     }
     if (arguments == null) return;
     switch (arguments.runMode()) {
-      case REPORT_ONLY -> generateReportOnly();
+      case REPORT_ONLY -> generateReportOnly(arguments);
       case INSTRUMENT_ONLY -> instrumentOnly(arguments);
       case DEFAULT -> instrumentCompileAndRun(arguments);
     }
   }
 
-  private static void generateReportOnly() {
+  private static void generateReportOnly(Arguments arguments) {
     Profiler profiler = new Profiler(null);
-    profiler.generateReport();
+    profiler.generateReport(arguments.reportWindow(), arguments.reportFilter());
     profiler.createLinkForReport();
   }
 
@@ -69,9 +69,13 @@ public class Main {
     instrumenter.instrumentFiles();
     instrumenter.exportMetadata();
     Profiler profiler = new Profiler(mainJavaFile, additionalJavaFiles);
-    profiler.compileInstrumented();
-    profiler.profile(arguments.programArgs());
-    profiler.generateReport();
+    profiler.compileInstrumented(instrumenter.getInstrumentedSources());
+    if (arguments.inProcess()) {
+      profiler.profileInProcess(arguments.programArgs(), arguments.snapshotInterval());
+    } else {
+      profiler.profile(arguments.programArgs(), arguments.snapshotInterval());
+    }
+    profiler.generateReport(arguments.reportWindow(), arguments.reportFilter());
     profiler.createLinkForReport();
   }
 
@@ -0,0 +1,237 @@
+package tool.instrument;
+
+import common.IO;
+import tool.model.JavaFile;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of parsed source files, used to skip unchanged files when a project is instrumented again.
+ * <p>
+ * Every source file is identified by the SHA-256 hash of its content and of all class files of the
+ * <code>tool.instrument</code> and <code>tool.model</code> packages (the parser, the instrumenter, their helpers and
+ * the model with its binary format), so that a new version of the tool never uses the cached results of an older one.
+ * The parsed {@link JavaFile} model of a file is stored in the cache directory, named after its content hash,
+ * in the binary format of the metadata file (see {@link JavaFile#exportModel}),
+ * so an unchanged file does not need to be parsed again.
+ * <p>
+ * The cache index records the content hash and the instrumentation settings (including the id of its first block)
+ * of every instrumented file. An instrumented file is only written again if any of them changed.
+ * If only the block ids of a file are shifted, because a previous file gained or lost blocks,
+ * it is instrumented again from its cached model, without parsing it.
+ * <p>
+ * All methods may be called concurrently for different files.
+ */
+public class InstrumentCache {
+  /**
+   * The packages whose class files are included in every content hash.
+   */
+  private static final String[] toolPackages = {"tool/instrument", "tool/model"};
+
+  private final Path cacheDir;
+  private final Path indexPath;
+  private final boolean storeParsedFiles;
+  private final byte[] toolHash = hashToolClassFiles();
+  private final Map<JavaFile, String> contentHashes = new ConcurrentHashMap<>();
+  private final Map<String, String> previousIndex;
+  private final Map<String, String> index = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a cache in the cache directory, reading the index of the previous instrumentation.
+   *
+   * @param storeParsedFiles whether parsed files are read from and stored in the cache
+   */
+  public InstrumentCache(boolean storeParsedFiles) {
+    this.cacheDir = IO.getCacheDir();
+    this.indexPath = IO.getCacheIndexPath();
+    this.storeParsedFiles = storeParsedFiles;
+    this.previousIndex = importIndex(indexPath);
+  }
+
+  /**
+   * Reads the cached parsed model of a source file, if its content did not change.
+   *
+   * @param javaFile the source file
+   * @return the cached model, or <code>null</code> if the file was not parsed before (or the cache is unreadable)
+   */
+  public JavaFile loadParsed(JavaFile javaFile) {
+    if (!storeParsedFiles) {
+      return null;
+    }
+    Path cachedFile = getParsedPath(getContentHash(javaFile));
+    if (!Files.exists(cachedFile)) {
+      return null;
+    }
+    try {
+      return JavaFile.importModel(cachedFile);
+    } catch (RuntimeException e) {
+      return null; // e.g. written by an older version of the tool, the file is parsed again
+    }
+  }
+
+  /**
+   * Stores the parsed model of a source file in the cache.
+   * <p>
+   * The model is written to a temporary file first and then moved, so a cached model is never read partially written.
+   *
+   * @param javaFile the parsed source file
+   */
+  public void storeParsed(JavaFile javaFile) {
+    if (!storeParsedFiles) {
+      return;
+    }
+    try {
+      Files.createDirectories(cacheDir);
+      Path tempFile = Files.createTempFile(cacheDir, "parsed", ".tmp");
+      javaFile.exportModel(tempFile);
+      Files.move(tempFile, getParsedPath(getContentHash(javaFile)), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns whether the instrumented copy of a source file is up-to-date,
+   * i.e. its content and the given instrumentation settings did not change since it was written.
+   *
+   * @param javaFile the source file
+   * @param settings the instrumentation settings of the file, including the id of its first block
+   * @return true if the instrumented copy does not need to be written again
+   */
+  public boolean isInstrumented(JavaFile javaFile, String settings) {
+    String key = IO.normalize(javaFile.relativePath);
+    return getInstrumentationKey(javaFile, settings).equals(previousIndex.get(key))
+        && Files.exists(IO.getInstrumentedFilePath(javaFile.relativePath));
+  }
+
+  /**
+   * Records that the instrumented copy of a source file was written with the given instrumentation settings.
+   *
+   * @param javaFile the source file
+   * @param settings the instrumentation settings of the file, including the id of its first block
+   */
+  public void markInstrumented(JavaFile javaFile, String settings) {
+    index.put(IO.normalize(javaFile.relativePath), getInstrumentationKey(javaFile, settings));
+  }
+
+  /**
+   * Writes the index of all files marked as instrumented
+   * and deletes the cached models of all files, which were not instrumented this time.
+   */
+  public void save() {
+    Set<String> usedFiles = new HashSet<>();
+    for (String contentHash : contentHashes.values()) {
+      usedFiles.add(getParsedPath(contentHash).getFileName().toString());
+    }
+    usedFiles.add(indexPath.getFileName().toString());
+    try {
+      Files.createDirectories(cacheDir);
+      try (Stream<Path> cachedFiles = Files.list(cacheDir)) {
+        for (Path cachedFile : cachedFiles.toList()) {
+          if (!usedFiles.contains(cachedFile.getFileName().toString())) {
+            Files.delete(cachedFile);
+          }
+        }
+      }
+      try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(indexPath.toFile()))) {
+        oos.writeObject(new HashMap<>(index));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private String getInstrumentationKey(JavaFile javaFile, String settings) {
+    return getContentHash(javaFile) + ":" + settings;
+  }
+
+  private Path getParsedPath(String contentHash) {
+    return cacheDir.resolve(contentHash + ".dat");
+  }
+
+  /**
+   * Returns the SHA-256 hash of the tool class files and the content of a source file,
+   * which is only read once per file.
+   *
+   * @param javaFile the source file
+   * @return the hexadecimal content hash
+   */
+  private String getContentHash(JavaFile javaFile) {
+    return contentHashes.computeIfAbsent(javaFile, file -> {
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(toolHash);
+        return HexFormat.of().formatHex(digest.digest(Files.readAllBytes(file.sourceFile)));
+      } catch (IOException | NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  /**
+   * Returns the SHA-256 hash of the names and contents of all class files in the tool packages.
+   * <p>
+   * The class files are read from the location the tool was loaded from, either a directory or the tool jar.
+   *
+   * @return the hash of the tool class files
+   */
+  private static byte[] hashToolClassFiles() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Path location = Path.of(InstrumentCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      if (Files.isDirectory(location)) {
+        hashToolPackages(location, digest);
+      } else {
+        try (FileSystem jar = FileSystems.newFileSystem(location)) {
+          hashToolPackages(jar.getPath("/"), digest);
+        }
+      }
+      return digest.digest();
+    } catch (IOException | NoSuchAlgorithmException | URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void hashToolPackages(Path root, MessageDigest digest) throws IOException {
+    for (String toolPackage : toolPackages) {
+      Path packageDir = root.resolve(toolPackage);
+      if (!Files.isDirectory(packageDir)) {
+        continue;
+      }
+      try (Stream<Path> files = Files.list(packageDir)) {
+        for (Path classFile : files.filter(file -> file.toString().endsWith(".class")).sorted().toList()) {
+          digest.update(classFile.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+          digest.update(Files.readAllBytes(classFile));
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> importIndex(Path indexPath) {
+    if (!Files.exists(indexPath)) {
+      return Map.of();
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(indexPath.toFile()))) {
+      return (Map<String, String>) ois.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      return Map.of(); // an unreadable index invalidates all instrumented files
+    }
+  }
+}
@@ -1,17 +1,31 @@
 package tool.instrument;
 
+import common.CounterMode;
 import common.IO;
+import common.TimingMode;
 import tool.cli.Arguments;
 import tool.model.*;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static tool.model.ControlBreak.Kind.THROW;
 
@@ -25,8 +39,55 @@ import static tool.model.ControlBreak.Kind.THROW;
  * Finally, it writes the instrumented source files to the instrumented directory.
  */
 public class Instrumenter {
+  /**
+   * The pre-compiled class files of the auxiliary package, including the nested classes of <code>__Counter</code>.
+   */
+  static final String[] auxiliaryClassFiles = {
+      "__Counter.class", "__Counter$MappedCounts.class", "__Counter$CountersMXBean.class", "__Counter$Counters.class",
+      "__Counter$TimingStack.class",
+      "__Counter$CallStack.class",
+      "__Counter$BlockCounts.class", "__Counter$SyncCounts.class", "__Counter$SampledCounts.class",
+      "__Counter$CompactCounts.class", "__Counter$Coverage.class", "__Counter$Paths.class", "__Counter$PathTable.class",
+      "__Counter$ClassBlocks.class"
+  };
+
+  /**
+   * The maximum number of paths through a method whose executions are counted in a dense array with one counter
+   * per path id. The paths of methods with more paths are counted in a hash table of the paths actually taken.
+   */
+  static final long DENSE_PATHS_LIMIT = 1024;
+
+  static final String auxiliaryConfigTemplate = """
+      package auxiliary;
+
+      /**
+       * The configuration of the {@link __Counter} class, generated by the profiler.
+       */
+      public class __Config {
+        public static final String OUTPUT_DIR = "%s";
+        public static final int BLOCKS_COUNT = %d;
+        public static final int SAMPLING_RATE = %d;
+        public static final int TIMING_MODE = %d;
+        public static final boolean CALL_GRAPH = %b;
+        public static final boolean PATHS = %b;
+      }
+      """;
+
   JavaFile[] javaFiles;
+  InstrumentCache cache;
+  /**
+   * The instrumented source code of all files instrumented by this instrumenter, by their relative path.
+   * Used to compile them without reading them from the <code>instrumented</code> directory again.
+   */
+  final Map<Path, String> instrumentedSources = new ConcurrentHashMap<>();
   int blockCounter;
+  CounterMode counterMode;
+  int samplingRate;
+  TimingMode timingMode;
+  boolean callGraph;
+  boolean minimalCounters;
+  boolean hoistLoopCounters;
+  boolean paths;
   public String incRefAdd;
   boolean verboseOutput;
 
@@ -39,15 +100,42 @@ public class Instrumenter {
   public Instrumenter(JavaFile[] javaFiles, Arguments toolArgs) {
     assert javaFiles.length > 0;
     this.verboseOutput = toolArgs.verboseOutput();
-    incRefAdd = (toolArgs.syncCounters()) ? "Sync" : "";
+    incRefAdd = switch (toolArgs.counterMode()) {
+      case DEFAULT -> "";
+      case SYNCHRONIZED -> "Sync";
+      case STRIPED -> "Striped";
+      case MAPPED -> "Mapped";
+      case SAMPLED -> "Sampled";
+      case COMPACT -> "Compact";
+      case COVERAGE -> "Coverage";
+    };
+    this.counterMode = toolArgs.counterMode();
+    this.samplingRate = toolArgs.samplingRate();
+    this.timingMode = toolArgs.timingMode();
+    this.callGraph = toolArgs.callGraph();
+    this.minimalCounters = toolArgs.minimalCounters();
+    this.hoistLoopCounters = toolArgs.hoistLoopCounters();
+    this.paths = toolArgs.paths();
     this.javaFiles = javaFiles;
+    this.cache = new InstrumentCache(!verboseOutput);
   }
 
   /**
    * Parses all source files and find all code blocks.
+   * <p>
+   * The files are parsed in parallel, each one with its own <code>Parser</code>, <code>Scanner</code>
+   * and <code>ParserState</code>. With verbose output, they are parsed one by one,
+   * so that the log messages of different files are not interleaved.
+   * <p>
+   * Files that did not change since they were last parsed are taken from the {@link InstrumentCache}
+   * (except with verbose output, which always logs the parsing of every file).
    */
   public void analyzeFiles() {
-    Arrays.stream(javaFiles).forEach(this::analyze);
+    Stream<JavaFile> files = Arrays.stream(javaFiles);
+    if (!verboseOutput) {
+      files = files.parallel();
+    }
+    files.forEach(this::analyze);
   }
 
   /**
@@ -58,6 +146,15 @@ public class Instrumenter {
    * @param javaFile the source file to parse
    */
   void analyze(JavaFile javaFile) {
+    JavaFile cached = cache.loadParsed(javaFile);
+    if (cached != null) {
+      System.out.println("Unchanged file: \"" + javaFile.sourceFile + "\"");
+      javaFile.packageName = cached.packageName;
+      javaFile.beginOfImports = cached.beginOfImports;
+      javaFile.foundBlocks = cached.foundBlocks;
+      javaFile.topLevelClasses = cached.topLevelClasses;
+      return;
+    }
     System.out.println("Parsing file: \"" + javaFile.sourceFile + "\"");
     Parser parser = new Parser(new Scanner(javaFile.sourceFile.toString()));
     parser.state.logger.active = verboseOutput;
@@ -70,24 +167,43 @@ public class Instrumenter {
     javaFile.beginOfImports = parser.state.beginOfImports;
     javaFile.foundBlocks = parser.state.allBlocks;
     javaFile.topLevelClasses = parser.state.topLevelClasses;
+    cache.storeParsed(javaFile);
   }
 
   /**
    * Instruments all source files.
    * <p>
+   * The block ids of each file start after the ids of all previous files (a prefix sum of their counted blocks),
+   * so the files can be instrumented in parallel, but get the same ids as if they were instrumented one by one.
    * The instrumented copy of each source file is then written to the instrumented directory.
+   * <p>
+   * Instrumented copies are only written if the content, the first block id or the settings of their file changed
+   * since the last instrumentation. Instrumented copies of files that are not instrumented anymore are deleted.
    */
   public void instrumentFiles() {
-    IO.clearDirectoryContents(IO.getInstrumentDir());
+    deleteStaleInstrumentedFiles();
+    int[] firstBlockIds = new int[javaFiles.length];
     blockCounter = 0;
-    try {
-      for (JavaFile javaFile : javaFiles) {
-        instrument(javaFile);
-      }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    for (int i = 0; i < javaFiles.length; i++) {
+      firstBlockIds[i] = blockCounter;
+      javaFiles[i].firstBlockId = blockCounter;
+      blockCounter += (int) javaFiles[i].foundBlocks.stream().filter(block -> block.blockType.hasCounter()).count();
     }
+    IntStream.range(0, javaFiles.length).parallel().forEach(i -> {
+      String settings = String.format("%d:%s:%s:%b:%b:%b:%b", firstBlockIds[i], incRefAdd, timingMode, callGraph, minimalCounters, hoistLoopCounters, paths);
+      try {
+        if (!cache.isInstrumented(javaFiles[i], settings)) {
+          instrument(javaFiles[i], firstBlockIds[i]);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      cache.markInstrumented(javaFiles[i], settings);
+    });
+    cache.save();
     copyAuxiliaryFiles();
+    generateAuxiliaryConfig(IO.getAuxiliaryInstrumentDir());
+    generateClassBlocks(IO.getAuxiliaryInstrumentDir());
     System.out.println();
     List<JClass> allClasses = Arrays.stream(javaFiles).flatMap(jFile -> jFile.getClassesRecursive().stream()).toList();
     System.out.println("Total classes found: " + allClasses.size());
@@ -96,14 +212,37 @@ public class Instrumenter {
     System.out.println("Total code block found: " + blockCounter);
   }
 
+  /**
+   * Deletes all files in the instrumented directory, except the instrumented copies of the current source files.
+   */
+  private void deleteStaleInstrumentedFiles() {
+    Path instrumentDir = IO.getInstrumentDir();
+    if (!Files.exists(instrumentDir)) {
+      return;
+    }
+    Set<Path> currentFiles = Arrays.stream(javaFiles)
+        .map(jFile -> IO.getInstrumentedFilePath(jFile.relativePath).normalize())
+        .collect(Collectors.toSet());
+    try (Stream<Path> walk = Files.walk(instrumentDir)) {
+      for (Path file : walk.filter(Files::isRegularFile).toList()) {
+        if (!currentFiles.contains(file.normalize())) {
+          Files.delete(file);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Instruments the given source file and writes the instrumented copy to the instrumented directory.
    *
-   * @param javaFile the source file to instrument
+   * @param javaFile     the source file to instrument
+   * @param firstBlockId the id of the first counted block of the file
    * @throws IOException if the source file or instrumented file cannot be read or written
    */
-  void instrument(JavaFile javaFile) throws IOException {
-    List<CodeInsert> codeInserts = getCodeInserts(javaFile);
+  void instrument(JavaFile javaFile, int firstBlockId) throws IOException {
+    List<CodeInsert> codeInserts = getCodeInserts(javaFile, firstBlockId);
     String fileContent = Files.readString(javaFile.sourceFile, StandardCharsets.ISO_8859_1);
     StringBuilder builder = new StringBuilder();
     int prevIdx = 0;
@@ -115,20 +254,56 @@ public class Instrumenter {
     builder.append(fileContent.substring(prevIdx));
     Path instrumentedFilePath = IO.getInstrumentedFilePath(javaFile.relativePath);
     IO.createDirectoriesIfNotExists(instrumentedFilePath);
-    Files.writeString(instrumentedFilePath, builder.toString());
+    String instrumentedSource = builder.toString();
+    Files.writeString(instrumentedFilePath, instrumentedSource);
+    instrumentedSources.put(javaFile.relativePath, instrumentedSource);
   }
 
   /**
    * Returns a list of <code>CodeInsert</code> objects
    * that represent the code to be inserted into the given source file.
+   * <p>
+   * If a timing mode is set, the bodies of methods, constructors and lambdas are additionally wrapped
+   * in a <code>try</code>-<code>finally</code> statement that records their entry and exit.
+   * This way, every exit is covered, i.e. returns, thrown exceptions and the end of the body.
+   * <p>
+   * If calls between methods are counted, the bodies of methods and constructors are wrapped likewise,
+   * to keep track of the currently executed method of each thread.
+   * <p>
+   * Single-statement lambdas with a value expression body are rewritten to a block with a return statement,
+   * which neither allocates nor adds a call per invocation. Other single-statement lambdas (whose body could
+   * also be a statement) are passed as a <code>Runnable</code> or <code>Supplier</code> to an
+   * <code>incLambda</code> method instead, because it is unknown whether they must return a value.
+   * <p>
+   * With minimal counters, derivable blocks (see {@link Block#isDerivable()}) get no increment.
+   * They keep their block id, so the ids of the other blocks do not depend on this setting.
+   * <p>
+   * With hoisted loop counters, the iterations of a loop are counted in a local variable declared before the loop,
+   * which is added to the loop body's counter in a <code>finally</code> block once the loop is left by any path
+   * (the end of the loop, <code>break</code>, <code>continue</code> of an outer loop, <code>return</code> or an exception).
+   * The local variable is declared again whenever the loop statement is executed.
+   * <p>
+   * If paths are counted, the bodies of methods and constructors declare a local path register, which is passed to
+   * <code>__Counter.pathDense</code> (or <code>__Counter.path</code> for more than {@link #DENSE_PATHS_LIMIT} paths)
+   * in a <code>finally</code> block. Every path block (see {@link PathNumbering})
+   * adds its increment to the register when it is entered. Methods with too many paths are not path-profiled.
+   * <p>
+   * The inserts at the end of a statement are added once all blocks inside the statement are done,
+   * so that inner statements ending at the same position are closed first.
    *
-   * @param javaFile the source file to instrument
+   * @param javaFile     the source file to instrument
+   * @param firstBlockId the id of the first counted block of the file, the following blocks are numbered consecutively
    * @return a list of CodeInsert objects that represent the code to be inserted into the given source file
    */
-  List<CodeInsert> getCodeInserts(JavaFile javaFile) {
+  List<CodeInsert> getCodeInserts(JavaFile javaFile, int firstBlockId) {
+    int nextBlockId = firstBlockId;
     List<CodeInsert> inserts = new ArrayList<>();
+    List<CodeInsert> closingInserts = new ArrayList<>();
+    Deque<Map.Entry<Block, CodeInsert>> statementEnds = new ArrayDeque<>();
+    Map<Block, Long> pathIncrements = new IdentityHashMap<>();
     inserts.add(new CodeInsert(javaFile.beginOfImports, "import auxiliary.__Counter;"));
     for (Block block : javaFile.foundBlocks) {
+      addStatementEnds(statementEnds, block, inserts);
       if (block.blockType.isSwitchBody()) {
         continue;
       }
@@ -137,28 +312,224 @@ public class Instrumenter {
         assert block.blockType != BlockType.METHOD;
         inserts.add(new CodeInsert(block.beg.pos(), "{"));
       }
-      if (block.isSingleStatement && block.blockType == BlockType.LAMBDA) {
-        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__Counter.incLambda%s(%d, () -> ", incRefAdd, blockCounter++)));
+      int blockId = nextBlockId++;
+      boolean pathProfiled = false;
+      long pathsCount = 0;
+      if (paths && block.blockType.isMethod()) {
+        PathNumbering pathNumbering = new PathNumbering(block);
+        if (pathNumbering.isValid()) {
+          pathIncrements.putAll(pathNumbering.getIncrements());
+          pathProfiled = true;
+          pathsCount = pathNumbering.getPathsCount();
+        }
+      }
+      boolean timed = timingMode != TimingMode.NONE && isTimed(block);
+      boolean hoisted = hoistLoopCounters && block.loopStatementBeg != null;
+      if (hoisted) {
+        inserts.add(new CodeInsert(block.loopStatementBeg.pos(), String.format("{long __loop%d=0;try{", blockId)));
+      }
+      if (block.isSingleStatement && block.isValueExpression) {
+        assert block.blockType == BlockType.LAMBDA;
+        String timingStart = timed ? "__Counter.enter();try{" : "";
+        String timingEnd = timed ? String.format("}finally{__Counter.exit(%d);}", blockId) : "";
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("{__Counter.inc%s(%d);%sreturn ", incRefAdd, blockId, timingStart)));
+        inserts.add(new CodeInsert(block.end.pos(), String.format(";%s}", timingEnd)));
+      } else if (block.isSingleStatement && block.blockType == BlockType.LAMBDA) {
+        String timedSuffix = timed ? "Timed" : "";
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__Counter.incLambda%s%s(%d, () -> ", incRefAdd, timedSuffix, blockId)));
         inserts.add(new CodeInsert(block.end.pos(), ")"));
-      } else {
-        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__Counter.inc%s(%d);", incRefAdd, blockCounter++)));
+      } else if (hoisted) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__loop%d++;", blockId)));
+      } else if (!minimalCounters || !block.isDerivable()) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__Counter.inc%s(%d);", incRefAdd, blockId)));
+      }
+      if (pathIncrements.containsKey(block)) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__path+=%dL;", pathIncrements.get(block))));
+      }
+      // the closing brace is the last character of the block, inner try statements must be closed first
+      int closingPos = block.end.pos() - 1;
+      if (pathProfiled && pathsCount <= DENSE_PATHS_LIMIT) {
+        closingInserts.add(new CodeInsert(closingPos, String.format("}finally{__Counter.pathDense(%d,__path,%d);}", blockId, pathsCount)));
+      } else if (pathProfiled) {
+        closingInserts.add(new CodeInsert(closingPos, String.format("}finally{__Counter.path(%d,__path);}", blockId)));
+      }
+      if (callGraph && block.blockType.isMethod()) {
+        closingInserts.add(new CodeInsert(closingPos, "}finally{__Counter.ret();}"));
+      }
+      if (timed && !block.isSingleStatement) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), "__Counter.enter();try{"));
+        closingInserts.add(new CodeInsert(closingPos, String.format("}finally{__Counter.exit(%d);}", blockId)));
+      }
+      if (callGraph && block.blockType.isMethod()) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), String.format("__Counter.call(%d);try{", blockId)));
+      }
+      if (pathProfiled) {
+        inserts.add(new CodeInsert(block.getIncInsertPos(), "long __path=0;try{"));
       }
       if (block.isSingleStatement && block.isSwitchExpressionCase() && (block.controlBreak == null || block.controlBreak.kind() != THROW)) {
         inserts.add(new CodeInsert(block.getIncInsertPos(), "yield "));
       }
+      // pushed in reverse order, the loop statement ends after its body
+      if (hoisted) {
+        String loopEnd = String.format("}finally{__Counter.add%s(%d,__loop%d);}}", incRefAdd, blockId, blockId);
+        statementEnds.push(Map.entry(block, new CodeInsert(block.loopStatementEnd.pos(), loopEnd)));
+      }
       if (block.isSingleStatement && block.blockType != BlockType.LAMBDA) {
-        inserts.add(new CodeInsert(block.end.pos(), "}"));
+        statementEnds.push(Map.entry(block, new CodeInsert(block.end.pos(), "}")));
       }
     }
+    addStatementEnds(statementEnds, null, inserts);
+    // after all other inserts, so that the closing inserts of inner blocks at the same position come first
+    inserts.addAll(closingInserts);
     inserts.sort(Comparator.comparing(CodeInsert::chPos));
     return inserts;
   }
 
+  /**
+   * Adds the pending inserts at the end of all statements that do not contain the given block, innermost first.
+   *
+   * @param statementEnds the pending inserts with the block of their statement, innermost on top
+   * @param block         the next block, or <code>null</code> to add all pending inserts
+   * @param inserts       the list of inserts to add them to
+   */
+  private static void addStatementEnds(Deque<Map.Entry<Block, CodeInsert>> statementEnds, Block block, List<CodeInsert> inserts) {
+    while (!statementEnds.isEmpty() && !isInside(block, statementEnds.peek().getKey())) {
+      inserts.add(statementEnds.pop().getValue());
+    }
+  }
+
+  /**
+   * Returns whether a block is nested inside another block.
+   *
+   * @param block the inner block, or <code>null</code>
+   * @param outer the outer block
+   * @return true if the outer block is a parent block of the inner block (at any level)
+   */
+  private static boolean isInside(Block block, Block outer) {
+    for (Block b = block; b != null; b = b.parentBlock) {
+      if (b == outer) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the execution time of the given block is measured in a timing mode.
+   *
+   * @param block the block to check
+   * @return true if it is the body of a method, constructor or lambda
+   */
+  static boolean isTimed(Block block) {
+    return block.blockType.isMethod() || block.blockType == BlockType.LAMBDA;
+  }
+
+  /**
+   * Returns the instrumented source code of all files written by {@link #instrumentFiles},
+   * i.e. all files whose instrumented copy was not up-to-date.
+   *
+   * @return the instrumented source code by the relative path of each source file
+   */
+  public Map<Path, String> getInstrumentedSources() {
+    return instrumentedSources;
+  }
+
   /**
    * Exports the metadata file.
    */
   public void exportMetadata() {
-    new Metadata(blockCounter, javaFiles).exportMetadata(IO.getMetadataPath());
+    new Metadata(blockCounter, counterMode, samplingRate, timingMode, callGraph, minimalCounters, paths, javaFiles).exportMetadata(IO.getMetadataPath());
+  }
+
+  /**
+   * Generates the <code>__Config</code> class of this project and compiles it into the given auxiliary directory.
+   * <p>
+   * The number of blocks, the counter settings and the absolute output directory are declared as constants,
+   * so <code>__Counter</code> does not need to read the metadata file when the profiled program starts.
+   * The source file is kept next to the class file.
+   * It is compiled for Java 17, like the other auxiliary classes.
+   * If no system Java compiler is available, the default <code>__Config</code> class is copied instead,
+   * which reads the metadata file from the working directory.
+   *
+   * @param auxiliaryDir the target "auxiliary" package directory
+   */
+  void generateAuxiliaryConfig(Path auxiliaryDir) {
+    String outputDir = IO.getOutputDir().toAbsolutePath().normalize().toString()
+        .replace("\\", "\\\\").replace("\"", "\\\"");
+    String source = String.format(auxiliaryConfigTemplate, outputDir, blockCounter, samplingRate,
+        timingMode.ordinal(), callGraph, paths);
+    Path sourceFile = auxiliaryDir.resolve("__Config.java");
+    try {
+      IO.createDirectoriesIfNotExists(sourceFile);
+      Files.writeString(sourceFile, source);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      System.out.println("No system Java compiler found, using the default auxiliary configuration.");
+      IO.copyResource(Instrumenter.class, "auxiliary/__Config.class", auxiliaryDir.resolve("__Config.class"));
+      return;
+    }
+    // same release as the precompiled auxiliary classes, so programs running on older JVMs can load it
+    int exitCode = compiler.run(null, null, null, "--release", "17", "-d", auxiliaryDir.getParent().toString(), sourceFile.toString());
+    if (exitCode != 0) {
+      throw new RuntimeException("Error compiling auxiliary configuration: " + sourceFile);
+    }
+  }
+
+  /**
+   * Generates the <code>__Classes.txt</code> resource mapping the counted blocks to their classes
+   * into the given auxiliary directory.
+   * <p>
+   * <code>__Counter</code> reads it when classes or packages are disabled at runtime.
+   * Each line contains the first block id of a run of counted blocks of the same class,
+   * followed by the fully qualified name of the class.
+   *
+   * @param auxiliaryDir the target "auxiliary" package directory
+   */
+  void generateClassBlocks(Path auxiliaryDir) {
+    StringBuilder classBlocks = new StringBuilder();
+    int blockId = 0;
+    JClass lastClass = null;
+    for (JavaFile jFile : javaFiles) {
+      for (Block block : jFile.foundBlocks) {
+        if (!block.blockType.hasCounter()) {
+          continue;
+        }
+        if (block.clazz != lastClass) {
+          classBlocks.append(blockId).append(' ').append(block.clazz.getFullName()).append('\n');
+          lastClass = block.clazz;
+        }
+        blockId++;
+      }
+    }
+    Path classBlocksFile = auxiliaryDir.resolve("__Classes.txt");
+    try {
+      IO.createDirectoriesIfNotExists(classBlocksFile);
+      Files.writeString(classBlocksFile, classBlocks);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Copies the generated <code>__Config</code> class file and <code>__Classes.txt</code> resource
+   * from one auxiliary directory to another.
+   *
+   * @param sourceAuxiliaryDir the "auxiliary" package directory containing the generated configuration
+   * @param targetAuxiliaryDir the target "auxiliary" package directory
+   */
+  public static void copyAuxiliaryConfig(Path sourceAuxiliaryDir, Path targetAuxiliaryDir) {
+    try {
+      Path target = targetAuxiliaryDir.resolve("__Config.class");
+      IO.createDirectoriesIfNotExists(target);
+      Files.copy(sourceAuxiliaryDir.resolve("__Config.class"), target, StandardCopyOption.REPLACE_EXISTING);
+      Files.copy(sourceAuxiliaryDir.resolve("__Classes.txt"), targetAuxiliaryDir.resolve("__Classes.txt"),
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   /**
@@ -167,6 +538,21 @@ public class Instrumenter {
    * Specifically, it copies the <code>__Counter.class</code> file to the auxiliary directory.
    */
   public static void copyAuxiliaryFiles() {
-    IO.copyResource(Instrumenter.class, "auxiliary/__Counter.class", IO.getAuxiliaryCounterInstrumentPath());
+    copyAuxiliaryFiles(IO.getAuxiliaryInstrumentDir());
+  }
+
+  /**
+   * Copies the pre-compiled <code>__Counter.class</code> file and the class files of its nested classes
+   * into the given auxiliary directory.
+   * <p>
+   * Each class file is copied individually, because class file resources, unlike resource folders,
+   * can always be located, also when running from a module.
+   *
+   * @param auxiliaryDir the target "auxiliary" package directory
+   */
+  public static void copyAuxiliaryFiles(Path auxiliaryDir) {
+    for (String classFile : auxiliaryClassFiles) {
+      IO.copyResource(Instrumenter.class, "auxiliary/" + classFile, auxiliaryDir.resolve(classFile));
+    }
   }
 }
\ No newline at end of file
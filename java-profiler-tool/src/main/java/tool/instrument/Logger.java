@@ -17,7 +17,7 @@ public class Logger {
   private static final String RESET = "\u001B[0m";
 
   private final Parser parser;
-  private static int indent = 1;
+  private int indent = 1;
   /**
    * Whether the logger should print log messages.
    */
@@ -52,10 +52,26 @@ public class ParserState {
   private JClass curClass = null;
   private Method curMeth = null;
   private Block curBlock = null;
+  private Block lastLeftBlock = null;
   private int curBlockId = 0;
   private CodeRegion curCodeRegion;
 
   private final List<String> curLabels = new ArrayList<>();
+  /**
+   * The begin of the first label and the colon of the last label of the labels directly preceding the current token.
+   */
+  private CodePosition labelsBeg = null;
+  private Token labelsColon = null;
+  /**
+   * The branch blocks of the if statements currently parsed, innermost last.
+   * An <code>else if</code> continues the if statement it belongs to.
+   */
+  private final Stack<List<Block>> ifBranches = new Stack<>();
+  /**
+   * The begin positions of the loop statements currently parsed, innermost last.
+   */
+  private final Stack<CodePosition> loopStatementBegs = new Stack<>();
+  private final List<Token> arrowBodyTokens = new ArrayList<>();
 
   /**
    * Creates a new ParserState, linked to the given parser.
@@ -93,10 +109,36 @@ public class ParserState {
     curBlock.incInsertOffset = endOfToken(parser.t) - curBlock.beg.pos();
   }
 
+  /**
+   * Registers the current token as a top-level token of a single-statement arrow body.
+   * For parenthesized expressions, only the closing parenthesis is registered.
+   */
+  void registerArrowBodyToken() {
+    arrowBodyTokens.add(parser.t);
+  }
+
+  /**
+   * Classifies the body of the current single-statement lambda block using {@link Util#isValueExpression}
+   * and clears the registered arrow body tokens.
+   */
+  void classifyArrowBody() {
+    if (curBlock.blockType == BlockType.LAMBDA) {
+      curBlock.isValueExpression = isValueExpression(arrowBodyTokens);
+      logger.log("> lambda body is a value expression: %s", curBlock.isValueExpression);
+    }
+    arrowBodyTokens.clear();
+  }
+
   /**
    * Registers the lookahead token value as a label for the next code block definition.
+   * Also remembers where a sequence of directly consecutive labels begins, to find the begin of labeled loops.
    */
   void registerLabel() {
+    if (parser.t != labelsColon) {
+      labelsBeg = tokenStartPosition(parser.la);
+    }
+    parser.scanner.ResetPeek();
+    labelsColon = parser.scanner.Peek();
     curLabels.add(parser.la.val);
   }
 
@@ -296,6 +338,27 @@ public class ParserState {
    */
   void leaveBlock(BlockType blockType) {
     leaveBlock(blockType, curBlock.hasNoBraces());
+    if (blockType == BlockType.TRY) {
+      registerDerivableBlock(lastLeftBlock, curBlock, List.of());
+    }
+  }
+
+  /**
+   * Leaves the current switch block.
+   * <p>
+   * The last case of a switch expression is only derived from its parent block
+   * if the switch expression is evaluated whenever its statement is executed.
+   * This is not the case if a conditional operator (<code>?</code>, <code>&amp;&amp;</code> or <code>||</code>)
+   * precedes it in the statement.
+   *
+   * @param switchType  the type of the switch block (<code>SWITCH_STMT</code> or <code>SWITCH_EXPR</code>)
+   * @param conditional whether the switch is preceded by a conditional operator in its statement
+   */
+  void leaveSwitch(BlockType switchType, boolean conditional) {
+    if (switchType == BlockType.SWITCH_EXPR && !conditional) {
+      registerLastSwitchExpressionCase();
+    }
+    leaveBlock(switchType);
   }
 
   /**
@@ -311,10 +374,133 @@ public class ParserState {
     curBlock.end = tokenEndPosition(missingBraces ? parser.t : parser.la);
     logger.leave(curBlock);
     endCodeRegion();
+    lastLeftBlock = curBlock;
     curBlock = curBlock.parentBlock;
     reenterBlock(blockType, missingBraces);
   }
 
+  /**
+   * Called at the start of a loop statement, before its keyword.
+   * The statement begins with its first label, if the loop is labeled.
+   */
+  void enterLoopStatement() {
+    loopStatementBegs.push(parser.t == labelsColon ? labelsBeg : tokenStartPosition(parser.la));
+  }
+
+  /**
+   * Called at the end of a loop statement.
+   * Registers the begin and end of the statement in the loop body block, which was left last.
+   */
+  void leaveLoopStatement() {
+    assert lastLeftBlock.blockType == BlockType.LOOP;
+    lastLeftBlock.loopStatementBeg = loopStatementBegs.pop();
+    lastLeftBlock.loopStatementEnd = tokenEndPosition(parser.t);
+  }
+
+  /**
+   * Called at the start of an if statement. Unless it is an <code>else if</code>, a new if statement is entered.
+   *
+   * @param elseIf whether the if statement directly follows an <code>else</code>
+   */
+  void enterIfStatement(boolean elseIf) {
+    if (!elseIf) {
+      ifBranches.push(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Called at the end of an if statement. Unless it is an <code>else if</code>, the current if statement is left.
+   *
+   * @param elseIf whether the if statement directly follows an <code>else</code>
+   */
+  void leaveIfStatement(boolean elseIf) {
+    if (!elseIf) {
+      ifBranches.pop();
+    }
+  }
+
+  /**
+   * Registers the block just left as a branch of the current if statement, executed if its condition is true.
+   */
+  void registerIfBranch() {
+    List<Block> branches = ifBranches.peek();
+    lastLeftBlock.firstBranch = branches.isEmpty() ? lastLeftBlock : branches.get(0);
+    branches.add(lastLeftBlock);
+  }
+
+  /**
+   * Registers the block just left as the final <code>else</code> branch of the current if statement.
+   * It is executed whenever no other branch is, so its hits can be derived from them.
+   */
+  void registerElseBranch() {
+    lastLeftBlock.firstBranch = ifBranches.peek().get(0);
+    registerDerivableBlock(lastLeftBlock, curBlock, ifBranches.peek());
+  }
+
+  /**
+   * Registers the block just left as a <code>catch</code> block of the current try statement.
+   * At most one <code>catch</code> block is executed, so they are linked to the <code>try</code> block as branches.
+   */
+  void registerCatchBlock() {
+    List<Block> blocks = curBlock.innerBlocks;
+    Block previous = blocks.get(blocks.size() - 2);
+    lastLeftBlock.firstBranch = previous.blockType == BlockType.TRY ? previous : previous.firstBranch;
+  }
+
+  /**
+   * Registers the last case of the current switch expression as derivable, if all its cases are arrow cases.
+   * <p>
+   * Switch expressions are exhaustive and arrow cases do not fall through,
+   * so exactly one case is executed whenever the switch expression is evaluated.
+   */
+  private void registerLastSwitchExpressionCase() {
+    List<Block> cases = curBlock.innerBlocks;
+    if (cases.isEmpty() || !cases.stream().allMatch(block -> block.blockType == BlockType.ARROW_CASE)) {
+      return;
+    }
+    Block lastCase = cases.get(cases.size() - 1);
+    registerDerivableBlock(lastCase, curBlock.parentBlock, cases.subList(0, cases.size() - 1));
+  }
+
+  /**
+   * Sets the derivation of a block that is entered exactly once whenever its statement is executed
+   * and none of the given alternative branches is taken.
+   * <p>
+   * Its hits are the hits of the base block at the start of the statement (like the hits of a code region,
+   * the hits of the base block minus its control break blocks before the statement),
+   * minus the hits of the alternative branches.
+   * Control break blocks inside the statement itself are not subtracted.
+   *
+   * @param block        the block to derive the hits of
+   * @param base         the block containing the statement, must have a counter
+   * @param alternatives the other branches of the statement
+   */
+  private void registerDerivableBlock(Block block, Block base, List<Block> alternatives) {
+    if (base == null || !base.blockType.hasCounter()) {
+      return;
+    }
+    block.derivationBase = base;
+    for (Block controlBreakBlock : base.innerControlBreaks) {
+      if (!isInsideAny(controlBreakBlock, block, alternatives)) {
+        block.derivationDependents.add(controlBreakBlock);
+      }
+    }
+    block.derivationDependents.addAll(alternatives);
+    logger.log("> derivable block: %s", block);
+  }
+
+  /**
+   * Returns whether a block is one of the given blocks or nested inside one of them.
+   */
+  private static boolean isInsideAny(Block inner, Block block, List<Block> blocks) {
+    for (Block b = inner; b != null; b = b.parentBlock) {
+      if (b == block || blocks.contains(b)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Start a new code region for a given block type and a parameter for whether braces are missing.
    * <p>
@@ -438,6 +624,22 @@ public class ParserState {
     return parser.t.val.equals("=") || parser.t.val.equals("return") || parser.t.val.equals("yield");
   }
 
+  /**
+   * Helper method to determine whether the current token starts a conditional operator,
+   * after which the rest of the statement is not always evaluated.
+   * That is the <code>?</code> of a ternary (but not of a wildcard type argument)
+   * or the first character of <code>&amp;&amp;</code> or <code>||</code>.
+   *
+   * @return whether the current token starts a conditional operator
+   */
+  boolean isConditionalOperator() {
+    return switch (parser.t.val) {
+      case "?" -> !List.of(">", ",", "extends", "super").contains(parser.la.val);
+      case "&", "|" -> parser.la.val.equals(parser.t.val) && endOfToken(parser.t) == startOfToken(parser.la);
+      default -> false;
+    };
+  }
+
   /**
    * LL1 resolver method to determine whether the next two tokens are <code>class</code>, <code>interface</code> or
    * <code>record</code> followed by an ident.
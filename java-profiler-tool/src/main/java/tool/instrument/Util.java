@@ -3,10 +3,19 @@ package tool.instrument;
 import tool.model.BlockType;
 import tool.model.CodePosition;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * This class contains utility methods for the {@link ParserState}.
  */
 public class Util {
+  /**
+   * Single character operators that can only be used in an expression with a value.
+   * The characters <code>&lt;</code> and <code>&gt;</code> are missing, because they also enclose type arguments.
+   */
+  private static final Set<String> valueOperators = Set.of("+", "-", "*", "/", "%", "!", "~", "?", "^", "|", "&");
+
   /**
    * Returns the start character position of the given token.
    *
@@ -102,4 +111,101 @@ public class Util {
     }
   }
 
+  /**
+   * Returns whether the top-level tokens of a single-statement lambda body form an expression
+   * that can only be used as a value, i.e. that is not also a statement expression.
+   * <p>
+   * Statement expressions (method calls, assignments, increments and instance creations) are valid bodies
+   * of lambdas with and without a return value, which cannot be distinguished without type information.
+   * All other expressions can only be returned, so the body can be rewritten to a block with a return statement.
+   * The check is conservative: it returns false for every body it cannot classify.
+   * <p>
+   * Parenthesized expressions are represented by their closing parenthesis only.
+   *
+   * @param tokens the top-level tokens of the lambda body
+   * @return true if the body is a value expression
+   */
+  static boolean isValueExpression(List<Token> tokens) {
+    if (tokens.isEmpty() || tokens.get(0).val.equals("throw")) {
+      return false;
+    }
+    boolean hasValueOperator = false;
+    boolean onlySimpleOperands = true;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      switch (token.val) {
+        case "->" -> {
+          return true; // the body is a lambda itself, its own body does not matter
+        }
+        case "switch", ",", ";", "{", "}", "++", "--" -> {
+          return false;
+        }
+        case "=" -> {
+          if (!isComparison(tokens, i)) {
+            return false; // assignment
+          }
+          hasValueOperator = true;
+        }
+        case "instanceof" -> hasValueOperator = true;
+        default -> {
+          if (valueOperators.contains(token.val)) {
+            hasValueOperator = true;
+          } else if (!isSimpleOperand(token.val)) {
+            onlySimpleOperands = false;
+          }
+        }
+      }
+    }
+    return hasValueOperator || onlySimpleOperands;
+  }
+
+  /**
+   * Returns whether the <code>=</code> token at the given index is part of a comparison operator
+   * (<code>==</code>, <code>!=</code>, <code>&lt;=</code> or <code>&gt;=</code>) instead of an assignment.
+   *
+   * @param tokens the tokens of an expression
+   * @param i      the index of the <code>=</code> token
+   * @return true if the token is part of a comparison operator
+   */
+  private static boolean isComparison(List<Token> tokens, int i) {
+    if (isAdjacent(tokens, i, i + 1) && tokens.get(i + 1).val.equals("=")) {
+      return true; // first character of "=="
+    }
+    if (!isAdjacent(tokens, i - 1, i)) {
+      return false;
+    }
+    String prev = tokens.get(i - 1).val;
+    if (prev.equals("=") || prev.equals("!")) {
+      return true;
+    }
+    if (prev.equals("<") || prev.equals(">")) {
+      return !isAdjacent(tokens, i - 2, i - 1) || !tokens.get(i - 2).val.equals(prev); // not "<<=" or ">>="
+    }
+    return false; // compound assignment
+  }
+
+  /**
+   * Returns whether two tokens exist and follow each other without any characters in between.
+   *
+   * @param tokens the list of tokens
+   * @param i      the index of the first token
+   * @param j      the index of the second token
+   * @return true if both indices are valid and the second token starts where the first one ends
+   */
+  private static boolean isAdjacent(List<Token> tokens, int i, int j) {
+    return i >= 0 && j < tokens.size() && endOfToken(tokens.get(i)) == startOfToken(tokens.get(j));
+  }
+
+  /**
+   * Returns whether a token is part of a name, literal, field access or array access,
+   * which are all expressions with a value.
+   *
+   * @param val the token value
+   * @return true for identifiers, keywords, literals, <code>.</code>, <code>[</code> and <code>]</code>
+   */
+  private static boolean isSimpleOperand(String val) {
+    char first = val.charAt(0);
+    return Character.isJavaIdentifierPart(first) || first == '"' || first == '\''
+        || val.equals(".") || val.equals("[") || val.equals("]");
+  }
 }
@@ -18,6 +18,11 @@ public class Block implements Serializable, Component {
   public CodePosition end;
   public BlockType blockType;
   public boolean isSingleStatement;
+  /**
+   * Whether the body of a single-statement lambda is an expression that can only be used as a value.
+   * Such lambdas can be instrumented by rewriting them to a block with a return statement.
+   */
+  public boolean isValueExpression;
 
   /**
    * The list of nested blocks for this block. Empty by default.
@@ -41,6 +46,39 @@ public class Block implements Serializable, Component {
    * The offset for inserting the block's counter-statement. Important for constructor blocks.
    */
   public int incInsertOffset;
+  /**
+   * The begin of the loop statement of a loop body block, including the labels of the loop. Null for other blocks.
+   * <p>
+   * Used to declare a local iteration counter before the loop, if loop counters are hoisted.
+   */
+  public CodePosition loopStatementBeg;
+  /**
+   * The end of the loop statement of a loop body block. Null for other blocks.
+   * For <code>do</code> loops, this is the end of the <code>while</code> condition.
+   */
+  public CodePosition loopStatementEnd;
+
+  /**
+   * The block the hits of this block can be derived from, instead of counting them.
+   * <p>
+   * Set for blocks that are entered exactly once whenever their statement is executed
+   * and none of its other branches is taken, i.e. the final <code>else</code> of an if statement,
+   * <code>try</code> blocks and the last case of an arrow-case switch expression.
+   * Null if the hits of this block can only be counted.
+   */
+  public Block derivationBase;
+  /**
+   * The blocks whose hits are subtracted from the hits of the {@link #derivationBase} to derive the hits of this block:
+   * the control break blocks of the base block before the statement of this block and the other branches of the statement.
+   */
+  public final List<Block> derivationDependents = new ArrayList<>();
+  /**
+   * The block identifying the alternative branches this block belongs to: the first branch of its if statement
+   * (the block itself for the first branch) or, for <code>catch</code> blocks, the <code>try</code> block.
+   * At most one of the branches with the same first branch is entered whenever their statement is executed.
+   * Null for all other blocks. The cases of a switch are not linked, they are the inner blocks of their switch body.
+   */
+  public Block firstBranch;
 
   /**
    * The number of times this block was hit during execution.
@@ -48,6 +86,16 @@ public class Block implements Serializable, Component {
    * This information is added from the counts.dat file before report generation.
    */
   transient public long hits;
+  /**
+   * The accumulated execution time of this block in nanoseconds, including the time spent in called methods.
+   * <p>
+   * This information is added from the timing.dat file before report generation, if a timing mode was used.
+   */
+  transient public long totalNanos;
+  /**
+   * The accumulated execution time of this block in nanoseconds, excluding the time spent in called methods.
+   */
+  transient public long selfNanos;
   /**
    * The list of inner blocks that contain a control break.
    * <p>
@@ -125,6 +173,27 @@ public class Block implements Serializable, Component {
     codeRegions.add(region);
   }
 
+  /**
+   * Returns whether the hits of this block can be derived from other blocks instead of counting them.
+   * @return true if a derivation base block is set
+   */
+  public boolean isDerivable() {
+    return derivationBase != null;
+  }
+
+  /**
+   * Derives the hits of this block from the hits of its derivation base and dependent blocks,
+   * like the hit-count of a {@link CodeRegion}.
+   * <p>
+   * Like code regions, this assumes that the statement is not left by an exception before a branch is entered.
+   * Estimated counts (e.g. sampled ones) could result in negative hits, which are reported as 0.
+   * @return the base block's hits minus the sum of hits of all dependent blocks
+   */
+  public long getDerivedHits() {
+    assert isDerivable();
+    return Math.max(0, derivationBase.hits - derivationDependents.stream().mapToLong(b -> b.hits).sum());
+  }
+
   /**
    * Returns the list of all inner blocks, below and excluding this one, recursively.
    * @return the list of all inner blocks
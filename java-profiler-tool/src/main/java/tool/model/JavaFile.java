@@ -20,6 +20,13 @@ public class JavaFile implements Serializable {
   public List<Block> foundBlocks;
   public transient Path sourceFile;
   public transient Path relativePath;
+  /**
+   * The id of the first counted block of this file, i.e. the number of counted blocks in all previous files.
+   * <p>
+   * This is the position of the first count of this file in the counts file.
+   * It is set during instrumentation and when the metadata is imported.
+   */
+  public transient int firstBlockId;
 
   /**
    * Creates a new JavaFile object based on a source file path and its parent root directory path.
@@ -61,6 +68,26 @@ public class JavaFile implements Serializable {
     return allClasses;
   }
 
+  /**
+   * Writes the model of this file to the filesystem, in the binary format described by {@link MetadataFormat}.
+   *
+   * @param path the path to write the model to
+   */
+  public void exportModel(Path path) {
+    MetadataFormat.writeJavaFile(this, path);
+  }
+
+  /**
+   * Reads the model of a java file, written by {@link #exportModel}.
+   * An error is thrown if it was written in another format version.
+   *
+   * @param path the path to read the model from
+   * @return a new {@link JavaFile} object read from a file
+   */
+  public static JavaFile importModel(Path path) {
+    return MetadataFormat.readJavaFile(path);
+  }
+
   /**
    * Custom serialization method, storing paths as strings.
    *
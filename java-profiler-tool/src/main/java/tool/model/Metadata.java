@@ -1,54 +1,77 @@
 package tool.model;
 
-import java.io.*;
-import java.nio.file.Path;
+import common.CounterMode;
+import common.TimingMode;
 
-import static common.IO.getMetadataPath;
+import java.nio.file.Path;
+import java.util.function.BiPredicate;
 
 /**
  * Helper class to represent the metadata of a java project.
  * <p>
- * Contains the total number of blocks and the list of java files and their respective {@link JavaFile} objects.
+ * Contains the total number of blocks, the counter mode, the sampling rate of the counters, the timing mode,
+ * whether calls between methods are counted, whether derivable blocks were instrumented without counters,
+ * whether the paths through methods are counted and the list of java files and their respective {@link JavaFile} objects.
  * <p>
  * Includes methods to export and import the metadata to/from a file.
  *
- * @param blocksCount the total number of blocks found in the project
- * @param javaFiles   the list of java files in the project
+ * @param blocksCount     the total number of blocks found in the project
+ * @param counterMode     the counter-increment flavour the project was instrumented with (one of {@link CounterMode})
+ * @param samplingRate    the rate of sampled counter increments (1 if every hit is counted)
+ * @param timingMode      the timing instrumentation of method bodies (one of {@link TimingMode})
+ * @param callGraph       whether the calls between methods are counted
+ * @param minimalCounters whether the hits of derivable blocks must be derived, as they were instrumented without counters
+ * @param paths           whether the acyclic paths through methods are counted
+ * @param javaFiles       the list of java files in the project
  */
-public record Metadata(int blocksCount, JavaFile[] javaFiles) {
+public record Metadata(int blocksCount, CounterMode counterMode, int samplingRate, TimingMode timingMode, boolean callGraph, boolean minimalCounters, boolean paths, JavaFile[] javaFiles) {
   /**
-   * Exports the metadata to the filesystem.
+   * Exports the metadata to the filesystem, in the binary format described by {@link MetadataFormat}.
    * <p>
    * The metadata file is located at {@link common.IO#getMetadataPath()}.
    *
    * @param metadataPath the path to the metadata file
    */
   public void exportMetadata(Path metadataPath) {
-    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(metadataPath.toFile()))) {
-      oos.writeInt(blocksCount);
-      oos.writeObject(javaFiles);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    MetadataFormat.write(this, metadataPath);
   }
 
   /**
    * Imports the metadata from the filesystem.
    * <p>
    * The metadata file is located at {@link common.IO#getMetadataPath()}.
+   * An error is thrown if it was written in another format version or if its checksum does not match.
    *
    * @param metadataPath the path to the metadata file
    * @return a new {@link Metadata} object read from a file
    */
   public static Metadata importMetadata(Path metadataPath) {
-    Metadata metadata;
-    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(metadataPath.toFile()))) {
-      int blocksCount = ois.readInt();
-      JavaFile[] javaFiles = (JavaFile[]) ois.readObject();
-      metadata = new Metadata(blocksCount, javaFiles);
-    } catch (IOException | ClassNotFoundException e) {
-      throw new RuntimeException(e);
-    }
-    return metadata;
+    return MetadataFormat.read(metadataPath, (relativePath, packageName) -> true);
+  }
+
+  /**
+   * Imports the metadata from the filesystem like {@link #importMetadata(Path)},
+   * but only reads the java files accepted by the given filter.
+   * <p>
+   * The files are located using the file index of the metadata file, the model of all other files is never read.
+   * The number of blocks is still the total number of blocks of the project.
+   *
+   * @param metadataPath the path to the metadata file
+   * @param fileFilter   tests the relative path and the package name (<code>null</code> for the default package)
+   *                     of each java file
+   * @return a new {@link Metadata} object with only the accepted java files
+   */
+  public static Metadata importMetadata(Path metadataPath, BiPredicate<Path, String> fileFilter) {
+    return MetadataFormat.read(metadataPath, fileFilter);
+  }
+
+  /**
+   * Imports only the header values from the metadata file, without reading the java files.
+   *
+   * @param metadataPath the path to the metadata file
+   * @return a new {@link Metadata} object without java files
+   */
+  public static Metadata importHeader(Path metadataPath) {
+    return MetadataFormat.read(metadataPath, null);
   }
 }
@@ -0,0 +1,669 @@
+package tool.model;
+
+import common.CounterMode;
+import common.TimingMode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * The binary format of the metadata file.
+ * <p>
+ * The file starts with a fixed-size header: a magic number, the format version, the number of blocks,
+ * the counter mode, the sampling rate, the timing mode, whether calls between methods are counted,
+ * whether derivable blocks were instrumented without counters, whether the paths through methods are counted,
+ * and the length and CRC-32 checksum of the file index.
+ * The header can be read and validated without reading the rest.
+ * <p>
+ * The file index lists every java file with its relative path, its package name, the id of its first counted block
+ * and the position, length and CRC-32 checksum of its segment. The segments follow the index, one per file.
+ * A subset of the files can thus be read without reading (or even checksumming) the segments of all other files.
+ * <p>
+ * Each segment stores the model of its java file in columnar tables: files, classes, methods, blocks and code regions.
+ * Objects reference each other by their index in their table (-1 for <code>null</code>),
+ * and strings by their index in a string table. Each column is written as a whole,
+ * as differences to the previous value, encoded as variable-length integers.
+ * The blocks of a file and the code regions of a block are stored consecutively, so only their number is written.
+ * This keeps the file small, and neither writing nor reading it follows the references between the objects recursively.
+ * As the segments are independent of each other, they are encoded and decoded in parallel.
+ * <p>
+ * The model of a single java file can also be stored on its own, as a segment preceded by the magic number
+ * and the version. The instrumenter caches the parsed models of unchanged files this way.
+ */
+final class MetadataFormat {
+  /**
+   * The magic number at the start of every metadata file, "JPMD".
+   */
+  static final int MAGIC = 0x4A504D44;
+  /**
+   * The version of the format. Must be increased on every change to the format.
+   */
+  static final int VERSION = 6;
+  /**
+   * The size of the header in bytes.
+   */
+  private static final int HEADER_SIZE = 6 * Integer.BYTES + 3 + Integer.BYTES + Long.BYTES;
+
+  /**
+   * The location of the segment of a java file, relative to the end of the file index.
+   */
+  private record Segment(int firstBlockId, long offset, int length, long checksum) {
+  }
+
+  private MetadataFormat() {
+  }
+
+  /**
+   * Writes the metadata to the given file.
+   *
+   * @param metadata     the metadata
+   * @param metadataPath the path to the metadata file
+   */
+  static void write(Metadata metadata, Path metadataPath) {
+    JavaFile[] files = metadata.javaFiles();
+    byte[][] segments = new byte[files.length][];
+    IntStream.range(0, files.length).parallel().forEach(i -> {
+      ByteArrayOutputStream segment = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(segment)) {
+        new Tables(new JavaFile[]{files[i]}).write(out);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      segments[i] = segment.toByteArray();
+    });
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(index)) {
+      out.writeInt(files.length);
+      int firstBlockId = 0;
+      long offset = 0;
+      for (int i = 0; i < files.length; i++) {
+        out.writeUTF(files[i].relativePath.toString());
+        out.writeBoolean(files[i].packageName != null);
+        if (files[i].packageName != null) {
+          out.writeUTF(files[i].packageName);
+        }
+        out.writeInt(firstBlockId);
+        out.writeLong(offset);
+        out.writeInt(segments[i].length);
+        out.writeLong(checksum(segments[i]));
+        firstBlockId += (int) files[i].foundBlocks.stream().filter(block -> block.blockType.hasCounter()).count();
+        offset += segments[i].length;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] indexBytes = index.toByteArray();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(metadataPath.toFile())))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(metadata.blocksCount());
+      out.writeInt(metadata.counterMode().ordinal());
+      out.writeInt(metadata.samplingRate());
+      out.writeInt(metadata.timingMode().ordinal());
+      out.writeBoolean(metadata.callGraph());
+      out.writeBoolean(metadata.minimalCounters());
+      out.writeBoolean(metadata.paths());
+      out.writeInt(indexBytes.length);
+      out.writeLong(checksum(indexBytes));
+      out.write(indexBytes);
+      for (byte[] segment : segments) {
+        out.write(segment);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the metadata from the given file, validating its header and the checksums of all read parts.
+   * <p>
+   * Only the segments of the java files accepted by the filter are read.
+   * The id of the first counted block is set on each of them (see {@link JavaFile#firstBlockId}),
+   * so their counts can be found without the files in between.
+   *
+   * @param metadataPath the path to the metadata file
+   * @param fileFilter   tests the relative path and the package name of each java file,
+   *                     or <code>null</code> to only read the header
+   * @return the metadata, with the accepted java files in their original order, or without java files
+   */
+  static Metadata read(Path metadataPath, BiPredicate<Path, String> fileFilter) {
+    if (!Files.exists(metadataPath)) {
+      throw new RuntimeException("Metadata not found at expected path: " + metadataPath);
+    }
+    try (FileChannel channel = FileChannel.open(metadataPath, StandardOpenOption.READ)) {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBytes(channel, 0, HEADER_SIZE, metadataPath)));
+      if (in.readInt() != MAGIC) {
+        throw new RuntimeException("Invalid metadata file: " + metadataPath);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new RuntimeException(String.format(
+            "Unsupported metadata version %d (expected %d), the project must be instrumented again: %s",
+            version, VERSION, metadataPath));
+      }
+      int blocksCount = in.readInt();
+      CounterMode counterMode = CounterMode.values()[in.readInt()];
+      int samplingRate = in.readInt();
+      TimingMode timingMode = TimingMode.values()[in.readInt()];
+      boolean callGraph = in.readBoolean();
+      boolean minimalCounters = in.readBoolean();
+      boolean paths = in.readBoolean();
+      JavaFile[] javaFiles = null;
+      if (fileFilter != null) {
+        int indexLength = in.readInt();
+        long indexChecksum = in.readLong();
+        byte[] indexBytes = readBytes(channel, HEADER_SIZE, indexLength, metadataPath);
+        verifyChecksum(indexBytes, indexChecksum, metadataPath);
+        List<Segment> segments = readIndex(new DataInputStream(new ByteArrayInputStream(indexBytes)), fileFilter);
+        long bodyStart = HEADER_SIZE + (long) indexLength;
+        javaFiles = new JavaFile[segments.size()];
+        JavaFile[] files = javaFiles;
+        IntStream.range(0, segments.size()).parallel().forEach(i -> {
+          Segment segment = segments.get(i);
+          try {
+            byte[] segmentBytes = readBytes(channel, bodyStart + segment.offset(), segment.length(), metadataPath);
+            verifyChecksum(segmentBytes, segment.checksum(), metadataPath);
+            files[i] = Tables.read(new DataInputStream(new ByteArrayInputStream(segmentBytes)))[0];
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          files[i].firstBlockId = segment.firstBlockId();
+        });
+      }
+      return new Metadata(blocksCount, counterMode, samplingRate, timingMode, callGraph, minimalCounters, paths, javaFiles);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the model of a single java file to the given file.
+   *
+   * @param javaFile the java file
+   * @param path     the path to write the model to
+   */
+  static void writeJavaFile(JavaFile javaFile, Path path) {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile())))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      new Tables(new JavaFile[]{javaFile}).write(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the model of a single java file, written by {@link #writeJavaFile}.
+   *
+   * @param path the path to read the model from
+   * @return the java file
+   */
+  static JavaFile readJavaFile(Path path) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new RuntimeException("Invalid or unsupported java file model: " + path);
+      }
+      return Tables.read(in)[0];
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the file index and returns the segments of the java files accepted by the filter.
+   */
+  private static List<Segment> readIndex(DataInputStream in, BiPredicate<Path, String> fileFilter) throws IOException {
+    List<Segment> segments = new ArrayList<>();
+    int nFiles = in.readInt();
+    for (int i = 0; i < nFiles; i++) {
+      Path relativePath = Paths.get(in.readUTF());
+      String packageName = in.readBoolean() ? in.readUTF() : null;
+      Segment segment = new Segment(in.readInt(), in.readLong(), in.readInt(), in.readLong());
+      if (fileFilter.test(relativePath, packageName)) {
+        segments.add(segment);
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Reads the given number of bytes at the given position of the file, without changing the position of the channel.
+   */
+  private static byte[] readBytes(FileChannel channel, long position, int length, Path metadataPath) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new RuntimeException("Invalid metadata file, unexpected end of file: " + metadataPath);
+      }
+    }
+    return buffer.array();
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 checksum = new CRC32();
+    checksum.update(bytes);
+    return checksum.getValue();
+  }
+
+  private static void verifyChecksum(byte[] bytes, long expectedChecksum, Path metadataPath) {
+    if (checksum(bytes) != expectedChecksum) {
+      throw new RuntimeException("Corrupt metadata file, checksum mismatch: " + metadataPath);
+    }
+  }
+
+  /**
+   * The tables of all objects of the java files, indexing every object in the order it is first found.
+   * Only used for writing, reading directly creates the objects from the columns.
+   */
+  private static class Tables {
+    final JavaFile[] files;
+    final List<String> strings = new ArrayList<>();
+    final Map<String, Integer> stringIds = new HashMap<>();
+    final List<JClass> classes = new ArrayList<>();
+    final Map<JClass, Integer> classIds = new IdentityHashMap<>();
+    final List<Method> methods = new ArrayList<>();
+    final Map<Method, Integer> methodIds = new IdentityHashMap<>();
+    final List<Block> blocks = new ArrayList<>();
+    final Map<Block, Integer> blockIds = new IdentityHashMap<>();
+    final List<CodeRegion> regions = new ArrayList<>();
+
+    /**
+     * Indexes all objects of the given java files.
+     * <p>
+     * The found blocks of all files come first, in the order of the files,
+     * followed by any other referenced block (which should not exist in a consistent model,
+     * where no object references an object of another file).
+     */
+    Tables(JavaFile[] files) {
+      this.files = files;
+      for (JavaFile file : files) {
+        file.foundBlocks.forEach(this::blockId);
+      }
+      for (JavaFile file : files) {
+        file.topLevelClasses.forEach(this::classId);
+      }
+      // index all objects referenced by indexed objects, until no new objects are found
+      int nClasses = 0, nMethods = 0, nBlocks = 0;
+      while (nClasses < classes.size() || nMethods < methods.size() || nBlocks < blocks.size()) {
+        for (; nClasses < classes.size(); nClasses++) {
+          JClass clazz = classes.get(nClasses);
+          classId(clazz.parentClass);
+          clazz.innerClasses.forEach(this::classId);
+          clazz.methods.forEach(this::methodId);
+          clazz.classBlocks.forEach(this::blockId);
+        }
+        for (; nMethods < methods.size(); nMethods++) {
+          Method method = methods.get(nMethods);
+          classId(method.parentClass);
+          blockId(method.methodBlock);
+        }
+        for (; nBlocks < blocks.size(); nBlocks++) {
+          Block block = blocks.get(nBlocks);
+          classId(block.clazz);
+          methodId(block.method);
+          blockId(block.parentBlock);
+          block.innerBlocks.forEach(this::blockId);
+          blockId(block.derivationBase);
+          block.derivationDependents.forEach(this::blockId);
+          blockId(block.firstBranch);
+          for (CodeRegion region : block.codeRegions) {
+            blockId(region.block);
+            region.dependentBlocks.forEach(this::blockId);
+          }
+        }
+      }
+      blocks.forEach(block -> regions.addAll(block.codeRegions));
+    }
+
+    int stringId(String string) {
+      if (string == null) {
+        return -1;
+      }
+      return stringIds.computeIfAbsent(string, s -> {
+        strings.add(s);
+        return strings.size() - 1;
+      });
+    }
+
+    int classId(JClass clazz) {
+      return id(clazz, classes, classIds);
+    }
+
+    int methodId(Method method) {
+      return id(method, methods, methodIds);
+    }
+
+    int blockId(Block block) {
+      return id(block, blocks, blockIds);
+    }
+
+    private static <T> int id(T object, List<T> table, Map<T, Integer> ids) {
+      if (object == null) {
+        return -1;
+      }
+      return ids.computeIfAbsent(object, o -> {
+        table.add(o);
+        return table.size() - 1;
+      });
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      // all strings are indexed before the string table is written
+      int[][] fileStrings = {
+          column(List.of(files), file -> stringId(file.sourceFile.toString())),
+          column(List.of(files), file -> stringId(file.relativePath.toString())),
+          column(List.of(files), file -> stringId(file.packageName)),
+      };
+      int[][] classStrings = {
+          column(classes, clazz -> stringId(clazz.name)),
+          column(classes, clazz -> stringId(clazz.packageName)),
+      };
+      int[] methodNames = column(methods, method -> stringId(method.name));
+      int[] controlBreakLabels = column(blocks, block -> block.controlBreak != null ? stringId(block.controlBreak.label()) : -1);
+      List<Integer> labelIds = blocks.stream().flatMap(block -> block.labels.stream()).map(this::stringId).toList();
+
+      out.writeInt(strings.size());
+      for (String string : strings) {
+        out.writeUTF(string);
+      }
+
+      out.writeInt(files.length);
+      for (int[] stringColumn : fileStrings) {
+        writeColumn(out, stringColumn);
+      }
+      writeColumn(out, column(List.of(files), file -> file.beginOfImports));
+      writeColumn(out, column(List.of(files), file -> file.foundBlocks.size()));
+      writeListColumn(out, List.of(files), file -> file.topLevelClasses, this::classId);
+
+      out.writeInt(classes.size());
+      for (int[] stringColumn : classStrings) {
+        writeColumn(out, stringColumn);
+      }
+      writeColumn(out, column(classes, clazz -> clazz.classType.ordinal()));
+      writeColumn(out, column(classes, clazz -> classId(clazz.parentClass)));
+      writeListColumn(out, classes, clazz -> clazz.innerClasses, this::classId);
+      writeListColumn(out, classes, clazz -> clazz.methods, this::methodId);
+      writeListColumn(out, classes, clazz -> clazz.classBlocks, this::blockId);
+
+      out.writeInt(methods.size());
+      writeColumn(out, methodNames);
+      writeColumn(out, column(methods, method -> classId(method.parentClass)));
+      writeColumn(out, column(methods, method -> blockId(method.methodBlock)));
+
+      out.writeInt(blocks.size());
+      writeColumn(out, column(blocks, block -> block.id));
+      writeColumn(out, column(blocks, block -> classId(block.clazz)));
+      writeColumn(out, column(blocks, block -> methodId(block.method)));
+      writeColumn(out, column(blocks, block -> blockId(block.parentBlock)));
+      writePositionColumns(out, blocks, block -> block.beg);
+      writePositionColumns(out, blocks, block -> block.end);
+      writePositionColumns(out, blocks, block -> block.loopStatementBeg);
+      writePositionColumns(out, blocks, block -> block.loopStatementEnd);
+      writeColumn(out, column(blocks, block -> block.blockType.ordinal()));
+      writeColumn(out, column(blocks, block -> (block.isSingleStatement ? 1 : 0) | (block.isValueExpression ? 2 : 0)));
+      writeColumn(out, column(blocks, block -> block.incInsertOffset));
+      writeColumn(out, column(blocks, block -> block.controlBreak != null ? block.controlBreak.kind().ordinal() : -1));
+      writeColumn(out, controlBreakLabels);
+      writeColumn(out, column(blocks, block -> block.codeRegions.size()));
+      writeListColumn(out, blocks, block -> block.innerBlocks, this::blockId);
+      writeColumn(out, column(blocks, block -> blockId(block.derivationBase)));
+      writeListColumn(out, blocks, block -> block.derivationDependents, this::blockId);
+      writeColumn(out, column(blocks, block -> blockId(block.firstBranch)));
+      writeColumn(out, column(blocks, block -> block.labels.size()));
+      writeColumn(out, labelIds.stream().mapToInt(Integer::intValue).toArray());
+
+      out.writeInt(regions.size());
+      writeColumn(out, column(regions, region -> region.id));
+      writePositionColumns(out, regions, region -> region.beg);
+      writePositionColumns(out, regions, region -> region.end);
+      writeColumn(out, column(regions, region -> blockId(region.block)));
+      writeListColumn(out, regions, region -> region.dependentBlocks, this::blockId);
+    }
+
+    static JavaFile[] read(DataInputStream in) throws IOException {
+      String[] strings = new String[in.readInt()];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = in.readUTF();
+      }
+
+      int nFiles = in.readInt();
+      int[] sourceFiles = readColumn(in, nFiles);
+      int[] relativePaths = readColumn(in, nFiles);
+      int[] filePackages = readColumn(in, nFiles);
+      int[] beginOfImports = readColumn(in, nFiles);
+      int[] foundBlocksCounts = readColumn(in, nFiles);
+      int[][] topLevelClasses = readListColumn(in, nFiles);
+
+      int nClasses = in.readInt();
+      int[] classNames = readColumn(in, nClasses);
+      int[] classPackages = readColumn(in, nClasses);
+      int[] classTypes = readColumn(in, nClasses);
+      int[] parentClasses = readColumn(in, nClasses);
+      int[][] innerClasses = readListColumn(in, nClasses);
+      int[][] classMethods = readListColumn(in, nClasses);
+      int[][] classBlocks = readListColumn(in, nClasses);
+
+      int nMethods = in.readInt();
+      int[] methodNames = readColumn(in, nMethods);
+      int[] methodClasses = readColumn(in, nMethods);
+      int[] methodBlocks = readColumn(in, nMethods);
+
+      int nBlocks = in.readInt();
+      int[] blockIds = readColumn(in, nBlocks);
+      int[] blockClasses = readColumn(in, nBlocks);
+      int[] blockMethods = readColumn(in, nBlocks);
+      int[] parentBlocks = readColumn(in, nBlocks);
+      CodePosition[] blockBegs = readPositionColumns(in, nBlocks);
+      CodePosition[] blockEnds = readPositionColumns(in, nBlocks);
+      CodePosition[] loopStatementBegs = readPositionColumns(in, nBlocks);
+      CodePosition[] loopStatementEnds = readPositionColumns(in, nBlocks);
+      int[] blockTypes = readColumn(in, nBlocks);
+      int[] blockFlags = readColumn(in, nBlocks);
+      int[] incInsertOffsets = readColumn(in, nBlocks);
+      int[] controlBreakKinds = readColumn(in, nBlocks);
+      int[] controlBreakLabels = readColumn(in, nBlocks);
+      int[] regionsCounts = readColumn(in, nBlocks);
+      int[][] innerBlocks = readListColumn(in, nBlocks);
+      int[] derivationBases = readColumn(in, nBlocks);
+      int[][] derivationDependents = readListColumn(in, nBlocks);
+      int[] firstBranches = readColumn(in, nBlocks);
+      int[][] labels = readListColumn(in, nBlocks);
+
+      int nRegions = in.readInt();
+      int[] regionIds = readColumn(in, nRegions);
+      CodePosition[] regionBegs = readPositionColumns(in, nRegions);
+      CodePosition[] regionEnds = readPositionColumns(in, nRegions);
+      int[] regionBlocks = readColumn(in, nRegions);
+      int[][] dependentBlocks = readListColumn(in, nRegions);
+
+      // create all objects first, then link them
+      JClass[] classes = new JClass[nClasses];
+      for (int i = 0; i < nClasses; i++) {
+        classes[i] = new JClass(string(strings, classNames[i]), ClassType.values()[classTypes[i]]);
+        classes[i].packageName = string(strings, classPackages[i]);
+      }
+      Method[] methods = new Method[nMethods];
+      for (int i = 0; i < nMethods; i++) {
+        methods[i] = new Method(string(strings, methodNames[i]));
+      }
+      Block[] blocks = new Block[nBlocks];
+      for (int i = 0; i < nBlocks; i++) {
+        Block block = new Block(BlockType.values()[blockTypes[i]]);
+        block.id = blockIds[i];
+        block.beg = blockBegs[i];
+        block.end = blockEnds[i];
+        block.loopStatementBeg = loopStatementBegs[i];
+        block.loopStatementEnd = loopStatementEnds[i];
+        block.isSingleStatement = (blockFlags[i] & 1) != 0;
+        block.isValueExpression = (blockFlags[i] & 2) != 0;
+        block.incInsertOffset = incInsertOffsets[i];
+        if (controlBreakKinds[i] >= 0) {
+          block.controlBreak = new ControlBreak(ControlBreak.Kind.values()[controlBreakKinds[i]], string(strings, controlBreakLabels[i]));
+        }
+        for (int label : labels[i]) {
+          block.labels.add(strings[label]);
+        }
+        blocks[i] = block;
+      }
+      for (int i = 0; i < nClasses; i++) {
+        classes[i].parentClass = ref(classes, parentClasses[i]);
+        for (int c : innerClasses[i]) classes[i].innerClasses.add(classes[c]);
+        for (int m : classMethods[i]) classes[i].methods.add(methods[m]);
+        for (int b : classBlocks[i]) classes[i].classBlocks.add(blocks[b]);
+      }
+      for (int i = 0; i < nMethods; i++) {
+        methods[i].parentClass = ref(classes, methodClasses[i]);
+        methods[i].methodBlock = ref(blocks, methodBlocks[i]);
+      }
+      int nextRegion = 0;
+      for (int i = 0; i < nBlocks; i++) {
+        Block block = blocks[i];
+        block.clazz = ref(classes, blockClasses[i]);
+        block.method = ref(methods, blockMethods[i]);
+        block.parentBlock = ref(blocks, parentBlocks[i]);
+        for (int b : innerBlocks[i]) block.innerBlocks.add(blocks[b]);
+        block.derivationBase = ref(blocks, derivationBases[i]);
+        for (int b : derivationDependents[i]) block.derivationDependents.add(blocks[b]);
+        block.firstBranch = ref(blocks, firstBranches[i]);
+        for (int r = 0; r < regionsCounts[i]; r++, nextRegion++) {
+          CodeRegion region = new CodeRegion();
+          region.id = regionIds[nextRegion];
+          region.beg = regionBegs[nextRegion];
+          region.end = regionEnds[nextRegion];
+          region.block = ref(blocks, regionBlocks[nextRegion]);
+          for (int b : dependentBlocks[nextRegion]) region.dependentBlocks.add(blocks[b]);
+          block.codeRegions.add(region);
+        }
+      }
+      JavaFile[] files = new JavaFile[nFiles];
+      int nextBlock = 0;
+      for (int i = 0; i < nFiles; i++) {
+        JavaFile file = new JavaFile(Paths.get(strings[sourceFiles[i]]));
+        file.relativePath = Paths.get(strings[relativePaths[i]]);
+        file.packageName = string(strings, filePackages[i]);
+        file.beginOfImports = beginOfImports[i];
+        file.topLevelClasses = new ArrayList<>(topLevelClasses[i].length);
+        for (int c : topLevelClasses[i]) file.topLevelClasses.add(classes[c]);
+        file.foundBlocks = new ArrayList<>(foundBlocksCounts[i]);
+        for (int b = 0; b < foundBlocksCounts[i]; b++, nextBlock++) file.foundBlocks.add(blocks[nextBlock]);
+        files[i] = file;
+      }
+      return files;
+    }
+  }
+
+  private static String string(String[] strings, int id) {
+    return id < 0 ? null : strings[id];
+  }
+
+  private static <T> T ref(T[] table, int id) {
+    return id < 0 ? null : table[id];
+  }
+
+  private static <T> int[] column(List<T> objects, ToIntFunction<T> value) {
+    return objects.stream().mapToInt(value).toArray();
+  }
+
+  /**
+   * Writes a column of integers, each as the difference to the previous one.
+   */
+  private static void writeColumn(DataOutputStream out, int[] column) throws IOException {
+    int previous = 0;
+    for (int value : column) {
+      writeVarInt(out, value - previous);
+      previous = value;
+    }
+  }
+
+  private static int[] readColumn(DataInputStream in, int length) throws IOException {
+    int[] column = new int[length];
+    int previous = 0;
+    for (int i = 0; i < length; i++) {
+      previous += readVarInt(in);
+      column[i] = previous;
+    }
+    return column;
+  }
+
+  /**
+   * Writes a list of references per object as two columns: the list sizes, followed by all elements.
+   */
+  private static <T, E> void writeListColumn(DataOutputStream out, List<T> objects, Function<T, List<E>> list, ToIntFunction<E> id) throws IOException {
+    writeColumn(out, column(objects, object -> list.apply(object).size()));
+    writeColumn(out, objects.stream().flatMap(object -> list.apply(object).stream()).mapToInt(id).toArray());
+  }
+
+  private static int[][] readListColumn(DataInputStream in, int length) throws IOException {
+    int[] sizes = readColumn(in, length);
+    int total = 0;
+    for (int size : sizes) {
+      total += size;
+    }
+    int[] elements = readColumn(in, total);
+    int[][] lists = new int[length][];
+    int offset = 0;
+    for (int i = 0; i < length; i++) {
+      lists[i] = new int[sizes[i]];
+      System.arraycopy(elements, offset, lists[i], 0, sizes[i]);
+      offset += sizes[i];
+    }
+    return lists;
+  }
+
+  /**
+   * Writes code positions as a line column and a character position column. A missing position has the line -1.
+   */
+  private static <T> void writePositionColumns(DataOutputStream out, List<T> objects, Function<T, CodePosition> position) throws IOException {
+    writeColumn(out, column(objects, object -> position.apply(object) != null ? position.apply(object).line() : -1));
+    writeColumn(out, column(objects, object -> position.apply(object) != null ? position.apply(object).pos() : -1));
+  }
+
+  private static CodePosition[] readPositionColumns(DataInputStream in, int length) throws IOException {
+    int[] lines = readColumn(in, length);
+    int[] positions = readColumn(in, length);
+    CodePosition[] codePositions = new CodePosition[length];
+    for (int i = 0; i < length; i++) {
+      codePositions[i] = lines[i] < 0 ? null : new CodePosition(lines[i], positions[i]);
+    }
+    return codePositions;
+  }
+
+  /**
+   * Writes a signed integer in the zig-zag variable-length encoding, using one byte for values from -64 to 63.
+   */
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    int bits = (value << 1) ^ (value >> 31);
+    while ((bits & ~0x7F) != 0) {
+      out.writeByte((bits & 0x7F) | 0x80);
+      bits >>>= 7;
+    }
+    out.writeByte(bits);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int bits = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.readUnsignedByte();
+      bits |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (bits >>> 1) ^ -(bits & 1);
+  }
+}
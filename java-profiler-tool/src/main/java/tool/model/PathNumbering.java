@@ -0,0 +1,238 @@
+package tool.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static tool.model.ControlBreak.Kind.RETURN;
+import static tool.model.ControlBreak.Kind.THROW;
+
+/**
+ * The numbering of the acyclic paths through the body of a method, using Ball-Larus path profiling.
+ * <p>
+ * The blocks of a method form a tree. Every block inside the method body, except loop bodies, lambdas, and all blocks
+ * inside them, is executed at most once per invocation, and is only ever entered from its parent block.
+ * A path through the method is therefore the set of these blocks entered by an invocation.
+ * Loops and lambdas cut the paths: their blocks may be executed any number of times and are only counted by their
+ * block counters. The blocks of local and anonymous classes belong to their own methods.
+ * <p>
+ * The path blocks of a block form a sequence of statements, each of which enters at most one of its branches:
+ * the branches of an if statement, the <code>catch</code> blocks of a try statement or the arrow cases of a switch.
+ * Other blocks (e.g. <code>try</code> blocks) are always entered, and colon cases, which may fall through,
+ * are each entered or not. A statement is skipped if none of its branches is taken, unless one of them always is,
+ * i.e. an <code>else</code> branch or the last case of a switch expression (see {@link Block#isDerivable()}).
+ * A branch ending with a <code>return</code> or <code>throw</code> leads directly to the end of the method.
+ * <p>
+ * This is the acyclic control-flow graph of the method, whose edges are numbered as described by Ball and Larus:
+ * the increment of an edge is the number of paths from its source to the end of the method
+ * along the edges before it. Skipping a statement is always the first edge, so only entering a block can have
+ * an increment, which is added to a method-local path register when the block is entered.
+ * This way, each path has a unique id from <code>0</code> to <code>{@link #getPathsCount()} - 1</code>,
+ * which is decoded back into its blocks by {@link #getBlocks(long)}. As no increment is negative,
+ * the register stays in this range also if the method is left by an exception.
+ * The numbering only depends on the block tree, so the instrumenter and the report compute the same numbering.
+ */
+public class PathNumbering {
+  /**
+   * The path blocks of a statement, at most one of which is entered whenever the statement is executed.
+   *
+   * @param branches      the path blocks, in order
+   * @param alwaysEntered whether the statement consists of a single block that is always entered
+   */
+  private record Statement(List<Block> branches, boolean alwaysEntered) {
+    /**
+     * {@return whether one of the branches is always entered}
+     */
+    boolean exhaustive() {
+      return alwaysEntered || branches.get(branches.size() - 1).isDerivable();
+    }
+  }
+
+  private final Block methodBlock;
+  private final Map<Block, List<Statement>> statements = new IdentityHashMap<>();
+  private final Map<Block, Long> increments = new IdentityHashMap<>();
+  private long pathsCount;
+  private final boolean valid;
+
+  /**
+   * Numbers the paths through the given method body.
+   * <p>
+   * If there are more paths than fit into a <code>long</code>, the numbering is not valid
+   * and the method cannot be path-profiled. The same applies to methods with labeled path blocks,
+   * which a <code>break</code> can leave in the middle of their statements.
+   *
+   * @param methodBlock the method (or constructor) block
+   */
+  public PathNumbering(Block methodBlock) {
+    assert methodBlock.blockType.isMethod();
+    this.methodBlock = methodBlock;
+    boolean valid;
+    try {
+      pathsCount = numberStatements(methodBlock, 1);
+      valid = statements.keySet().stream().allMatch(block -> block == methodBlock || block.labels.isEmpty());
+    } catch (ArithmeticException e) {
+      valid = false;
+    }
+    this.valid = valid;
+  }
+
+  /**
+   * Numbers the paths from the start of a block's statements to the end of the method, recursively.
+   *
+   * @param block             the block
+   * @param continuationPaths the number of paths from the end of the block to the end of the method
+   * @return the number of paths from the start of the block to the end of the method
+   * @throws ArithmeticException if the number of paths overflows a <code>long</code>
+   */
+  private long numberStatements(Block block, long continuationPaths) {
+    List<Statement> blockStatements = new ArrayList<>();
+    addStatements(block, blockStatements);
+    statements.put(block, blockStatements);
+    long paths = continuationPaths;
+    for (int i = blockStatements.size() - 1; i >= 0; i--) {
+      Statement statement = blockStatements.get(i);
+      long statementPaths = statement.exhaustive() ? 0 : paths;
+      for (Block branch : statement.branches()) {
+        if (statementPaths > 0) {
+          increments.put(branch, statementPaths);
+        }
+        long branchPaths = numberStatements(branch, endsPath(branch) ? 1 : paths);
+        statementPaths = Math.addExact(statementPaths, branchPaths);
+      }
+      paths = statementPaths;
+    }
+    return paths;
+  }
+
+  /**
+   * Adds the statements formed by the inner blocks of a block that are path blocks of the same method.
+   * Consecutive branches with the same first branch form one statement.
+   * The cases of switch bodies are added instead of the switch body itself.
+   *
+   * @param block      the parent block
+   * @param statements the list to add the statements to
+   */
+  private static void addStatements(Block block, List<Statement> statements) {
+    for (Block inner : block.innerBlocks) {
+      if (inner.method != block.method || inner.blockType == BlockType.LOOP || inner.blockType == BlockType.LAMBDA) {
+        continue;
+      }
+      if (inner.blockType.isSwitchBody()) {
+        addSwitchStatements(inner, statements);
+      } else if (inner.firstBranch == null) {
+        statements.add(new Statement(List.of(inner), true));
+      } else if (statements.isEmpty() || statements.get(statements.size() - 1).branches().get(0).firstBranch != inner.firstBranch) {
+        statements.add(new Statement(new ArrayList<>(List.of(inner)), false));
+      } else {
+        statements.get(statements.size() - 1).branches().add(inner);
+      }
+    }
+  }
+
+  /**
+   * Adds the cases of a switch body as one statement, if they are all arrow cases.
+   * Otherwise, each case may fall through to the next one, and is added as a statement of its own.
+   */
+  private static void addSwitchStatements(Block switchBody, List<Statement> statements) {
+    List<Block> cases = switchBody.innerBlocks;
+    if (cases.isEmpty()) {
+      return;
+    }
+    if (cases.stream().allMatch(c -> c.blockType == BlockType.ARROW_CASE)) {
+      statements.add(new Statement(cases, false));
+    } else {
+      cases.forEach(c -> statements.add(new Statement(List.of(c), false)));
+    }
+  }
+
+  /**
+   * Returns whether the method is always left at the end of a block, i.e. it ends with a <code>return</code> or
+   * <code>throw</code> statement that is not inside a <code>try</code> or <code>catch</code> block of the method.
+   * Inside these, the path may continue with a <code>catch</code> or <code>finally</code> block.
+   */
+  private static boolean endsPath(Block block) {
+    if (block.controlBreak == null || block.controlBreak.kind() != RETURN && block.controlBreak.kind() != THROW) {
+      return false;
+    }
+    for (Block b = block; b != null && b.method == block.method; b = b.parentBlock) {
+      if (b.blockType == BlockType.TRY || b.firstBranch != null && b.firstBranch.blockType == BlockType.TRY) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the paths of the method could be numbered.
+   *
+   * @return false if there are more paths than fit into a <code>long</code> or the method has labeled path blocks
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /**
+   * Returns the number of acyclic paths through the method.
+   *
+   * @return the number of path ids
+   */
+  public long getPathsCount() {
+    assert valid;
+    return pathsCount;
+  }
+
+  /**
+   * Returns the increments of the path register for the path blocks of the method.
+   * Blocks entered with an increment of zero (and the method block itself) are not included.
+   *
+   * @return the increment of each path block with a non-zero increment
+   */
+  public Map<Block, Long> getIncrements() {
+    assert valid;
+    return increments;
+  }
+
+  /**
+   * Decodes a path id into the blocks entered along the path.
+   * <p>
+   * For every statement along the path, the entered branch is the last one whose increment does not exceed the
+   * remaining path id, which is then reduced by the increment. If even the first branch's increment exceeds it,
+   * the statement was skipped.
+   *
+   * @param pathId the path id
+   * @return the method block followed by the entered path blocks, in the order of the blocks
+   */
+  public List<Block> getBlocks(long pathId) {
+    assert valid && pathId >= 0 && pathId < getPathsCount();
+    List<Block> blocks = new ArrayList<>();
+    blocks.add(methodBlock);
+    Deque<Iterator<Statement>> pendingStatements = new ArrayDeque<>();
+    pendingStatements.push(statements.get(methodBlock).iterator());
+    long value = pathId;
+    while (!pendingStatements.isEmpty()) {
+      if (!pendingStatements.peek().hasNext()) {
+        pendingStatements.pop();
+        continue;
+      }
+      Block entered = null;
+      for (Block branch : pendingStatements.peek().next().branches()) {
+        if (increments.getOrDefault(branch, 0L) <= value) {
+          entered = branch;
+        }
+      }
+      if (entered != null) {
+        value -= increments.getOrDefault(entered, 0L);
+        blocks.add(entered);
+        if (endsPath(entered)) {
+          pendingStatements.clear();
+        }
+        pendingStatements.push(statements.get(entered).iterator());
+      }
+    }
+    return blocks;
+  }
+}
@@ -3,6 +3,7 @@ package tool.profile;
 import common.IO;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
@@ -15,21 +16,26 @@ import java.util.Date;
  * <p>
  * Subclasses should implement the {@link #body()} method to generate the main content of the HTML document.
  * <p>
- * The fields {@link #title}, {@link #includeScripts}, {@link #bodyScripts} and {@link #cssFiles} can be used to
- * customize the HTML document.
+ * The fields {@link #title}, {@link #notice}, {@link #includeScripts}, {@link #bodyScripts} and {@link #cssFiles}
+ * can be used to customize the HTML document.
  * <p>
  * The {@link #getFileOutputPath()} method should be overridden
  * to return the path to where the output file should be written to.
  */
 public abstract class AbstractHtmlWriter {
-  final StringBuilder content = new StringBuilder();
+  /**
+   * The writer of the output file, only open while the document is written by {@link #write()}.
+   * All parts of the document are streamed to the file, so a page is never kept in memory as a whole.
+   */
+  PrintWriter content;
   public String title;
+  public String notice;
   public String[] includeScripts;
   public String[] bodyScripts;
   public String[] cssFiles;
 
   /**
-   * Appends the HTML header to the internal <code>content</code> StringBuilder.
+   * Appends the HTML header to the <code>content</code> writer.
    * <p>
    * Includes the doctype, the html and head tags, the title, the included scripts and the css style.
    */
@@ -56,7 +62,7 @@ public abstract class AbstractHtmlWriter {
   }
 
   /**
-   * Appends the HTML body start tag to the internal <code>content</code> StringBuilder.
+   * Appends the HTML body start tag to the <code>content</code> writer.
    */
   public void bodyStart() {
     content.append("<body>\n");
@@ -80,7 +86,7 @@ public abstract class AbstractHtmlWriter {
   }
 
   /**
-   * Writes the custom heading to the internal <code>content</code> StringBuilder.
+   * Writes the custom heading to the <code>content</code> writer.
    *
    * @param heading the page title string
    */
@@ -88,13 +94,23 @@ public abstract class AbstractHtmlWriter {
     content.append("<h2>").append(heading).append("</h2>\n");
   }
 
+  /**
+   * Writes the notice paragraph below the heading to the <code>content</code> writer, if there is one.
+   * Used to inform about the accuracy of the shown data.
+   */
+  public void notice() {
+    if (notice != null) {
+      content.append("<p class=\"notice\">").append(notice).append("</p>\n");
+    }
+  }
+
   /**
    * Should be overridden to generate the main content of the HTML document.
    */
   public abstract void body();
 
   /**
-   * Appends the HTML body end tag to the internal <code>content</code> StringBuilder and includes all the body scripts.
+   * Appends the HTML body end tag to the <code>content</code> writer and includes all the body scripts.
    */
   public void bodyEnd() {
     if (bodyScripts != null) {
@@ -123,6 +139,7 @@ public abstract class AbstractHtmlWriter {
     bodyStart();
     breadcrumbBar();
     heading(title);
+    notice();
     body();
     bodyEnd();
     footer();
@@ -131,16 +148,22 @@ public abstract class AbstractHtmlWriter {
   /**
    * Writes the generated HTML document to the file specified by {@link #getFileOutputPath()}.
    * <p>
+   * The document is generated while it is written, through a buffered writer.
    * Parent directories are created if they do not exist.
    */
   public void write() {
-    this.generate();
     Path destPath = getFileOutputPath();
     IO.createDirectoriesIfNotExists(destPath);
-    try {
-      Files.writeString(destPath, content.toString());
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(destPath))) {
+      content = writer;
+      this.generate();
+      if (writer.checkError()) {
+        throw new RuntimeException("Error writing report file: " + destPath);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      content = null;
     }
   }
 
@@ -0,0 +1,178 @@
+package tool.profile;
+
+import tool.model.Block;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The weighted call graph of a profiled program run.
+ * <p>
+ * Its nodes are the bodies of all methods and constructors (identified by their method blocks).
+ * Each edge from a caller to a callee is weighted by the number of calls counted along it.
+ * Calls from lambdas are attributed to the method executing the lambda.
+ */
+public class CallGraph {
+  private final Map<Block, Map<Block, Long>> callees = new LinkedHashMap<>();
+  private final Map<Block, Map<Block, Long>> callers = new LinkedHashMap<>();
+
+  /**
+   * Imports the call graph from the call graph file.
+   * <p>
+   * The file contains the number of edges, followed by the caller id, the callee id and the number of calls
+   * for every edge. The ids are the positions of the method blocks in the given list of all counted blocks.
+   * Edges from or to blocks missing in the list (i.e. <code>null</code>, like the blocks of files not reported)
+   * are skipped.
+   *
+   * @param callGraphPath the call graph file
+   * @param countedBlocks all blocks with a counter, in the order of their ids
+   * @return the imported call graph
+   */
+  public static CallGraph importCallGraph(Path callGraphPath, List<Block> countedBlocks) {
+    if (!callGraphPath.toFile().exists()) {
+      throw new RuntimeException("Call graph not found at expected path: " + callGraphPath);
+    }
+    CallGraph callGraph = new CallGraph();
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(callGraphPath.toFile())))) {
+      int nEdges = dis.readInt();
+      for (int i = 0; i < nEdges; i++) {
+        int caller = dis.readInt();
+        int callee = dis.readInt();
+        long calls = dis.readLong();
+        if (caller >= countedBlocks.size() || callee >= countedBlocks.size()) {
+          throw new RuntimeException("Invalid block id in call graph. Mismatching entry counts");
+        }
+        Block callerBlock = countedBlocks.get(caller);
+        Block calleeBlock = countedBlocks.get(callee);
+        if (callerBlock != null && calleeBlock != null) {
+          callGraph.addEdge(callerBlock, calleeBlock, calls);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return callGraph;
+  }
+
+  /**
+   * Adds the given number of calls to the edge from a caller to a callee.
+   *
+   * @param caller the method block of the calling method
+   * @param callee the method block of the called method
+   * @param calls  the number of calls
+   */
+  void addEdge(Block caller, Block callee, long calls) {
+    callees.computeIfAbsent(caller, k -> new LinkedHashMap<>()).merge(callee, calls, Long::sum);
+    callers.computeIfAbsent(callee, k -> new LinkedHashMap<>()).merge(caller, calls, Long::sum);
+  }
+
+  /**
+   * Returns the callers of a method, sorted by the number of calls in descending order.
+   *
+   * @param methodBlock the method block of the called method
+   * @return the calling method blocks with their number of calls
+   */
+  public List<Map.Entry<Block, Long>> getCallers(Block methodBlock) {
+    return sortedByCalls(callers.getOrDefault(methodBlock, Map.of()));
+  }
+
+  /**
+   * Returns the methods called by a method, sorted by the number of calls in descending order.
+   *
+   * @param methodBlock the method block of the calling method
+   * @return the called method blocks with their number of calls
+   */
+  public List<Map.Entry<Block, Long>> getCallees(Block methodBlock) {
+    return sortedByCalls(callees.getOrDefault(methodBlock, Map.of()));
+  }
+
+  private static List<Map.Entry<Block, Long>> sortedByCalls(Map<Block, Long> edges) {
+    return edges.entrySet().stream()
+        .sorted(Map.Entry.<Block, Long>comparingByValue().reversed())
+        .toList();
+  }
+
+  /**
+   * Returns all methods that call or are called by another method.
+   *
+   * @return the method blocks of all nodes of the call graph
+   */
+  private Set<Block> getNodes() {
+    Set<Block> nodes = new LinkedHashSet<>(callees.keySet());
+    nodes.addAll(callers.keySet());
+    return nodes;
+  }
+
+  /**
+   * Returns the readable name of a method, including its class.
+   *
+   * @param methodBlock the method block of the method
+   * @return the name of the form <code>Class::method</code>
+   */
+  public static String getMethodName(Block methodBlock) {
+    return methodBlock.clazz.getFullName() + "::" + methodBlock.method.name;
+  }
+
+  /**
+   * Returns a unique id of a method, distinguishing overloaded methods by their line number.
+   *
+   * @param methodBlock the method block of the method
+   * @return the id of the form <code>Class::method:line</code>
+   */
+  private static String getMethodId(Block methodBlock) {
+    return getMethodName(methodBlock) + ":" + methodBlock.beg.line();
+  }
+
+  /**
+   * Exports the call graph in the DOT format of Graphviz.
+   *
+   * @param dotPath the file to write the graph to
+   */
+  public void exportDot(Path dotPath) {
+    StringBuilder dot = new StringBuilder("digraph callgraph {\n");
+    dot.append("  node [shape=box];\n");
+    for (Block node : getNodes()) {
+      dot.append(String.format("  \"%s\" [label=\"%s\\n%,d invocations\"];\n",
+          getMethodId(node), getMethodName(node), node.hits));
+    }
+    for (Map.Entry<Block, Map<Block, Long>> caller : callees.entrySet()) {
+      for (Map.Entry<Block, Long> callee : caller.getValue().entrySet()) {
+        dot.append(String.format("  \"%s\" -> \"%s\" [label=\"%d\"];\n",
+            getMethodId(caller.getKey()), getMethodId(callee.getKey()), callee.getValue()));
+      }
+    }
+    dot.append("}\n");
+    writeExport(dotPath, dot.toString());
+  }
+
+  /**
+   * Exports the call graph in a JSON format, with a list of nodes and a list of weighted edges.
+   *
+   * @param jsonPath the file to write the graph to
+   */
+  public void exportJson(Path jsonPath) {
+    StringJoiner nodes = new StringJoiner(",\n", "[\n", "\n  ]");
+    for (Block node : getNodes()) {
+      nodes.add(String.format("    {\"id\": \"%s\", \"name\": \"%s\", \"invocations\": %d}",
+          getMethodId(node), getMethodName(node), node.hits));
+    }
+    StringJoiner edges = new StringJoiner(",\n", "[\n", "\n  ]");
+    for (Map.Entry<Block, Map<Block, Long>> caller : callees.entrySet()) {
+      for (Map.Entry<Block, Long> callee : caller.getValue().entrySet()) {
+        edges.add(String.format("    {\"caller\": \"%s\", \"callee\": \"%s\", \"calls\": %d}",
+            getMethodId(caller.getKey()), getMethodId(callee.getKey()), callee.getValue()));
+      }
+    }
+    writeExport(jsonPath, "{\n  \"nodes\": " + nodes + ",\n  \"edges\": " + edges + "\n}\n");
+  }
+
+  private static void writeExport(Path path, String content) {
+    try {
+      Files.writeString(path, content);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
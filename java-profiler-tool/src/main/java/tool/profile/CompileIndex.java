@@ -0,0 +1,261 @@
+package tool.profile;
+
+import common.IO;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the class files compiled from the instrumented source files, used for incremental compilation.
+ * <p>
+ * For every source file (identified by its normalized relative path), it records the names of the classes
+ * compiled from it and the names of all classes referenced by them.
+ * The references are read from the constant pools of the class files: class entries as well as
+ * all class types in field and method descriptors and generic signatures.
+ * <p>
+ * If a source file changed, its classes and the classes of all source files which (transitively) depend on them
+ * are compiled again, all other class files are kept.
+ * <p>
+ * Compile-time constants (<code>static final</code> fields with a <code>ConstantValue</code> attribute) are inlined
+ * by the compiler into the classes using them, without any reference to the declaring class.
+ * The index therefore also records the constants declared by each source file. If the constants of a compiled
+ * source file differ from the ones of its previous compilation, all sources must be compiled again
+ * (see {@link #constantsChanged()}).
+ */
+public class CompileIndex implements Serializable {
+  @Serial
+  private static final long serialVersionUID = 2L;
+  /**
+   * Matches the class names in descriptors and signatures, like <code>Lpkg/Outer$Inner;</code>.
+   */
+  private static final Pattern classTypePattern = Pattern.compile("L([^;<>()\\[\\]:.]+)[;<]");
+
+  private final Map<String, Set<String>> classesBySource = new HashMap<>();
+  private final Map<String, Set<String>> dependenciesBySource = new HashMap<>();
+  /**
+   * The compile-time constants declared by the classes of each source file, like <code>pkg.Cls.NAME=I:42</code>.
+   */
+  private final Map<String, Set<String>> constantsBySource = new HashMap<>();
+  /**
+   * The constants of the source files invalidated by {@link #invalidate}, as recorded by their previous compilation.
+   */
+  private transient Map<String, Set<String>> previousConstants = new HashMap<>();
+
+  /**
+   * Imports the compile index of the previous compilation.
+   *
+   * @param indexPath the path to the compile index file
+   * @return the compile index, or <code>null</code> if there is none (or it is unreadable)
+   */
+  public static CompileIndex importIndex(Path indexPath) {
+    if (!Files.exists(indexPath)) {
+      return null;
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(indexPath.toFile())))) {
+      return (CompileIndex) ois.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      return null; // everything is compiled again
+    }
+  }
+
+  /**
+   * Exports the compile index to the filesystem.
+   *
+   * @param indexPath the path to the compile index file
+   */
+  public void exportIndex(Path indexPath) {
+    try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(indexPath.toFile())))) {
+      oos.writeObject(this);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Determines the source files that must be compiled again and deletes their class files.
+   * <p>
+   * These are the changed source files, the source files with missing class files and the source files not
+   * part of the project anymore (of which only the class files are deleted),
+   * together with all source files depending on them.
+   *
+   * @param projectSources the relative paths of all source files of the project
+   * @param changedSources the relative paths of the source files whose instrumented copy changed
+   * @param classesDir     the directory of the compiled classes
+   * @return the relative paths of the source files to compile
+   */
+  public List<Path> invalidate(Collection<Path> projectSources, Collection<Path> changedSources, Path classesDir) {
+    Set<String> current = new HashSet<>();
+    projectSources.forEach(source -> current.add(IO.normalize(source)));
+    Set<String> invalid = new HashSet<>();
+    changedSources.forEach(source -> invalid.add(IO.normalize(source)));
+    previousConstants = new HashMap<>();
+    for (String source : classesBySource.keySet()) {
+      if (!current.contains(source) || !hasClassFiles(source, classesDir)) {
+        invalid.add(source);
+      }
+    }
+    invalid.retainAll(classesBySource.keySet()); // sources compiled for the first time are compiled implicitly
+    Deque<String> worklist = new ArrayDeque<>(invalid);
+    while (!worklist.isEmpty()) {
+      Set<String> classes = classesBySource.get(worklist.poll());
+      for (Map.Entry<String, Set<String>> dependent : dependenciesBySource.entrySet()) {
+        if (!invalid.contains(dependent.getKey()) && !Collections.disjoint(dependent.getValue(), classes)) {
+          invalid.add(dependent.getKey());
+          worklist.add(dependent.getKey());
+        }
+      }
+    }
+    List<Path> toCompile = new ArrayList<>();
+    for (String source : invalid) {
+      removeSource(source, classesDir);
+      if (current.contains(source)) {
+        toCompile.add(Path.of(source));
+      }
+    }
+    return toCompile;
+  }
+
+  /**
+   * Returns whether the compile-time constants of the sources compiled again differ from their previous compilation.
+   * <p>
+   * The sources inlining these constants might not have been compiled again,
+   * so all sources must be compiled again if this is the case.
+   *
+   * @return true if a constant was added, removed or changed its value since the previous compilation
+   */
+  public boolean constantsChanged() {
+    for (Map.Entry<String, Set<String>> previous : previousConstants.entrySet()) {
+      if (!previous.getValue().equals(constantsBySource.getOrDefault(previous.getKey(), Set.of()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether a source file was compiled before.
+   *
+   * @param relativePath the relative path of the source file
+   * @return true if its classes are recorded in the index
+   */
+  public boolean contains(Path relativePath) {
+    return classesBySource.containsKey(IO.normalize(relativePath));
+  }
+
+  /**
+   * Records a class compiled from a source file, together with the classes referenced by its class file
+   * and the compile-time constants declared by it.
+   *
+   * @param relativePath the relative path of the source file
+   * @param className    the binary name of the compiled class
+   * @param classFile    the compiled class file
+   */
+  public void addClass(Path relativePath, String className, Path classFile) {
+    String source = IO.normalize(relativePath);
+    classesBySource.computeIfAbsent(source, k -> new HashSet<>()).add(className);
+    Set<String> dependencies = dependenciesBySource.computeIfAbsent(source, k -> new HashSet<>());
+    Set<String> constants = constantsBySource.computeIfAbsent(source, k -> new HashSet<>());
+    readClassFile(classFile, className, dependencies, constants);
+  }
+
+  private boolean hasClassFiles(String source, Path classesDir) {
+    return classesBySource.get(source).stream().allMatch(className -> Files.exists(getClassFile(classesDir, className)));
+  }
+
+  private void removeSource(String source, Path classesDir) {
+    try {
+      for (String className : classesBySource.remove(source)) {
+        Files.deleteIfExists(getClassFile(classesDir, className));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    dependenciesBySource.remove(source);
+    previousConstants.put(source, constantsBySource.getOrDefault(source, Set.of()));
+    constantsBySource.remove(source);
+  }
+
+  private static Path getClassFile(Path classesDir, String className) {
+    return classesDir.resolve(className.replace('.', '/') + ".class");
+  }
+
+  /**
+   * Reads the names of all classes referenced in the constant pool of a class file,
+   * and the compile-time constants declared by its fields.
+   *
+   * @param classFile  the class file
+   * @param className  the binary name of the class
+   * @param references the set to add the binary names of the referenced classes to
+   * @param constants  the set to add the constants to, as the field name, its descriptor and its value
+   */
+  static void readClassFile(Path classFile, String className, Set<String> references, Set<String> constants) {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile.toFile())))) {
+      dis.readInt(); // magic
+      dis.readInt(); // minor and major version
+      int constantPoolCount = dis.readUnsignedShort();
+      String[] utf8Entries = new String[constantPoolCount];
+      // the values of number and string entries, which are referenced by ConstantValue attributes
+      String[] valueEntries = new String[constantPoolCount];
+      int[] stringIndices = new int[constantPoolCount];
+      List<Integer> classNameIndices = new ArrayList<>();
+      for (int i = 1; i < constantPoolCount; i++) {
+        int tag = dis.readUnsignedByte();
+        switch (tag) {
+          case 1 -> utf8Entries[i] = dis.readUTF();
+          case 3 -> valueEntries[i] = "I:" + dis.readInt();
+          case 4 -> valueEntries[i] = "F:" + Float.floatToRawIntBits(dis.readFloat());
+          case 7 -> classNameIndices.add(dis.readUnsignedShort());
+          case 8 -> stringIndices[i] = dis.readUnsignedShort();
+          case 16, 19, 20 -> dis.skipNBytes(2);
+          case 15 -> dis.skipNBytes(3);
+          case 9, 10, 11, 12, 17, 18 -> dis.skipNBytes(4);
+          case 5, 6 -> {
+            valueEntries[i] = (tag == 5 ? "J:" : "D:") + dis.readLong();
+            i++; // long and double entries take two slots
+          }
+          default -> throw new IOException("Invalid constant pool tag " + tag + " in class file: " + classFile);
+        }
+      }
+      for (int i = 1; i < constantPoolCount; i++) {
+        if (stringIndices[i] != 0) {
+          valueEntries[i] = "S:" + utf8Entries[stringIndices[i]];
+        }
+      }
+      for (int index : classNameIndices) {
+        references.add(utf8Entries[index].replace('/', '.'));
+      }
+      for (String entry : utf8Entries) {
+        if (entry == null || entry.indexOf(';') < 0) {
+          continue;
+        }
+        Matcher matcher = classTypePattern.matcher(entry);
+        while (matcher.find()) {
+          references.add(matcher.group(1).replace('/', '.'));
+        }
+      }
+      dis.skipNBytes(6); // access flags, this class and super class
+      dis.skipNBytes(2L * dis.readUnsignedShort()); // interfaces
+      int fieldsCount = dis.readUnsignedShort();
+      for (int i = 0; i < fieldsCount; i++) {
+        dis.skipNBytes(2); // access flags
+        String field = className + "." + utf8Entries[dis.readUnsignedShort()] + ":" + utf8Entries[dis.readUnsignedShort()];
+        int attributesCount = dis.readUnsignedShort();
+        for (int j = 0; j < attributesCount; j++) {
+          String attributeName = utf8Entries[dis.readUnsignedShort()];
+          int attributeLength = dis.readInt();
+          if (attributeName.equals("ConstantValue")) {
+            constants.add(field + "=" + valueEntries[dis.readUnsignedShort()]);
+          } else {
+            dis.skipNBytes(attributeLength);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
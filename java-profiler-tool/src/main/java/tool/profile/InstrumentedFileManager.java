@@ -0,0 +1,139 @@
+package tool.profile;
+
+import common.IO;
+
+import javax.tools.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A file manager for the in-process compilation of instrumented sources, which are kept in memory.
+ * <p>
+ * The instrumented sources given by the instrumenter are served from memory,
+ * all other files (like the auxiliary class files or unchanged instrumented sources) are read from the file system.
+ * Class files are written to the class output directory as usual,
+ * the source file of every written class is recorded for the {@link CompileIndex}.
+ */
+public class InstrumentedFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+  private final Map<String, List<InstrumentedSource>> sourcesByPackage = new HashMap<>();
+  private final Map<Path, InstrumentedSource> sourcesByPath = new HashMap<>();
+  private final Map<String, Path> compiledClasses = new LinkedHashMap<>();
+
+  /**
+   * An instrumented source file in memory.
+   * Its URI is the location of its instrumented copy on disk, so compiler messages point to the usual file.
+   */
+  static class InstrumentedSource extends SimpleJavaFileObject {
+    final String binaryName;
+    final String content;
+
+    InstrumentedSource(Path relativePath, String content) {
+      super(IO.getInstrumentedFilePath(relativePath).toAbsolutePath().toUri(), Kind.SOURCE);
+      String path = IO.normalize(relativePath);
+      this.binaryName = path.substring(0, path.length() - Kind.SOURCE.extension.length()).replace('/', '.');
+      this.content = content;
+    }
+
+    String getPackageName() {
+      int lastDot = binaryName.lastIndexOf('.');
+      return lastDot < 0 ? "" : binaryName.substring(0, lastDot);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return content;
+    }
+  }
+
+  /**
+   * Creates a file manager serving the given instrumented sources from memory.
+   *
+   * @param fileManager         the standard file manager of the compiler
+   * @param instrumentedSources the instrumented source code by the relative path of each source file
+   */
+  public InstrumentedFileManager(StandardJavaFileManager fileManager, Map<Path, String> instrumentedSources) {
+    super(fileManager);
+    instrumentedSources.forEach((relativePath, content) -> {
+      InstrumentedSource source = new InstrumentedSource(relativePath, content);
+      sourcesByPackage.computeIfAbsent(source.getPackageName(), k -> new ArrayList<>()).add(source);
+      sourcesByPath.put(relativePath, source);
+    });
+  }
+
+  /**
+   * Returns the compilation unit of an instrumented source file, from memory if possible.
+   *
+   * @param relativePath the relative path of the source file
+   * @return the in-memory source or the instrumented copy on disk
+   */
+  public JavaFileObject getInstrumentedSource(Path relativePath) {
+    InstrumentedSource source = sourcesByPath.get(relativePath);
+    if (source != null) {
+      return source;
+    }
+    return fileManager.getJavaFileObjects(IO.getInstrumentedFilePath(relativePath)).iterator().next();
+  }
+
+  /**
+   * Lists the files of a package. On the source path, the instrumented copies on disk are replaced
+   * by the sources in memory (the compiler looks up sources package by package, without recursion).
+   */
+  @Override
+  public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+    Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+    List<InstrumentedSource> sources = sourcesByPackage.get(packageName);
+    if (location != StandardLocation.SOURCE_PATH || !kinds.contains(JavaFileObject.Kind.SOURCE) || recurse || sources == null) {
+      return files;
+    }
+    Set<String> inMemory = new HashSet<>();
+    sources.forEach(source -> inMemory.add(source.binaryName));
+    List<JavaFileObject> result = new ArrayList<>(sources);
+    for (JavaFileObject file : files) {
+      if (file.getKind() != JavaFileObject.Kind.SOURCE || !inMemory.contains(inferBinaryName(location, file))) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records the source file of every class file written by the compiler.
+   */
+  @Override
+  public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+    if (kind == JavaFileObject.Kind.CLASS && sibling != null) {
+      Path instrumentDir = IO.getInstrumentDir().toAbsolutePath().normalize();
+      Path sourceFile = Path.of(sibling.toUri()).toAbsolutePath().normalize();
+      if (sourceFile.startsWith(instrumentDir)) {
+        compiledClasses.put(className, instrumentDir.relativize(sourceFile));
+      }
+    }
+    return super.getJavaFileForOutput(location, className, kind, sibling);
+  }
+
+  /**
+   * Returns the classes written by the compiler.
+   *
+   * @return the relative path of the source file of each class, by the binary class name
+   */
+  public Map<String, Path> getCompiledClasses() {
+    return compiledClasses;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof InstrumentedSource source) {
+      return source.binaryName;
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof InstrumentedSource || b instanceof InstrumentedSource) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+}
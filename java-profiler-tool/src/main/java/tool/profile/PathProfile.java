@@ -0,0 +1,107 @@
+package tool.profile;
+
+import tool.model.Block;
+import tool.model.PathNumbering;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The acyclic paths taken through the methods of a profiled program run.
+ * <p>
+ * For every path-profiled method (identified by its method block), the number of executions of each path id is
+ * stored. The ids are decoded into the blocks along the path with the {@link PathNumbering} of the method.
+ */
+public class PathProfile {
+  private final Map<Block, Map<Long, Long>> histograms = new HashMap<>();
+  private final Map<Block, PathNumbering> numberings = new HashMap<>();
+
+  /**
+   * Imports the paths from the paths file.
+   * <p>
+   * The file contains the number of counted paths, followed by the method id, the path id and the number of
+   * executions for every path. The method ids are the positions of the method blocks in the given list of all
+   * counted blocks. Paths of methods missing in the list (i.e. <code>null</code>, like the blocks of files not
+   * reported) are skipped.
+   *
+   * @param pathsPath     the paths file
+   * @param countedBlocks all blocks with a counter, in the order of their ids
+   * @return the imported path profile
+   */
+  public static PathProfile importPaths(Path pathsPath, List<Block> countedBlocks) {
+    if (!pathsPath.toFile().exists()) {
+      throw new RuntimeException("Paths not found at expected path: " + pathsPath);
+    }
+    PathProfile pathProfile = new PathProfile();
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(pathsPath.toFile())))) {
+      int nPaths = dis.readInt();
+      for (int i = 0; i < nPaths; i++) {
+        int method = dis.readInt();
+        long pathId = dis.readLong();
+        long executions = dis.readLong();
+        if (method >= countedBlocks.size()) {
+          throw new RuntimeException("Invalid block id in paths. Mismatching entry counts");
+        }
+        Block methodBlock = countedBlocks.get(method);
+        if (methodBlock != null) {
+          pathProfile.addPath(methodBlock, pathId, executions);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return pathProfile;
+  }
+
+  /**
+   * Adds the given number of executions to a path through a method.
+   *
+   * @param methodBlock the method block of the method
+   * @param pathId      the path id
+   * @param executions  the number of executions
+   */
+  void addPath(Block methodBlock, long pathId, long executions) {
+    PathNumbering numbering = numberings.computeIfAbsent(methodBlock, PathNumbering::new);
+    if (!methodBlock.blockType.isMethod() || !numbering.isValid()
+        || pathId < 0 || pathId >= numbering.getPathsCount()) {
+      throw new RuntimeException("Invalid path id in paths. Mismatching metadata");
+    }
+    histograms.computeIfAbsent(methodBlock, k -> new HashMap<>()).merge(pathId, executions, Long::sum);
+  }
+
+  /**
+   * Returns the most often executed paths through a method, sorted by their executions in descending order.
+   *
+   * @param methodBlock the method block of the method
+   * @param limit       the maximum number of paths to return
+   * @return the path ids with their number of executions
+   */
+  public List<Map.Entry<Long, Long>> getHotPaths(Block methodBlock, int limit) {
+    return histograms.getOrDefault(methodBlock, Map.of()).entrySet().stream()
+        .sorted(Map.Entry.<Long, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+        .limit(limit)
+        .toList();
+  }
+
+  /**
+   * Returns the number of executions of a method along all its paths.
+   *
+   * @param methodBlock the method block of the method
+   * @return the number of exits from the method
+   */
+  public long getExecutions(Block methodBlock) {
+    return histograms.getOrDefault(methodBlock, Map.of()).values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  /**
+   * Returns the blocks entered along a path through a method.
+   *
+   * @param methodBlock the method block of the method
+   * @param pathId      the path id
+   * @return the method block followed by the entered blocks, in the order of the blocks
+   */
+  public List<Block> getBlocks(Block methodBlock, long pathId) {
+    return numberings.get(methodBlock).getBlocks(pathId);
+  }
+}
@@ -1,25 +1,51 @@
 package tool.profile;
 
+import common.CounterMode;
 import common.IO;
 import common.JCompilerCommandBuilder;
 import common.JavaCommandBuilder;
+import common.TimingMode;
 import common.Util;
+import tool.instrument.Instrumenter;
 import tool.model.Block;
 import tool.model.JClass;
 import tool.model.JavaFile;
 import tool.model.Metadata;
 
-import java.io.DataInputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.PrimitiveIterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 
 public class Profiler {
+  /**
+   * The minimum number of report files for the progress of writing them to be printed.
+   */
+  private static final int REPORT_PROGRESS_MIN_FILES = 100;
   private final JavaFile mainJavaFile;
   private final JavaFile[] additionalJavaFiles;
+  /**
+   * The final counts of a run inside the profiler's JVM, or <code>null</code> if the counts file must be read.
+   */
+  private long[] inProcessCounts;
 
   /**
    * Creates a new {@link Profiler} object with the given main file and an array of additional files to profile.
@@ -32,30 +58,107 @@ public class Profiler {
     this.additionalJavaFiles = additionalJavaFiles;
   }
 
+  /**
+   * Compiles the main instrumented file and output it to the <code>classes</code> directory,
+   * reading all instrumented sources from the <code>instrumented</code> directory.
+   * All classes are compiled again.
+   *
+   * @see #compileInstrumented(Map)
+   */
+  public void compileInstrumented() {
+    compileInstrumented(Map.of(), false);
+  }
+
   /**
    * Compiles the main instrumented file and output it to the <code>classes</code> directory.
-   * The <code>javac</code> tool will automatically compile all referenced instrumented java files.
+   * The compiler will automatically compile all referenced instrumented java files.
    * The working directory is not changed during this process.
+   * <p>
+   * The system Java compiler is run in-process, with the given instrumented sources served from memory
+   * by an {@link InstrumentedFileManager}. All other sources are read from the <code>instrumented</code> directory.
+   * Only if no system Java compiler is available (i.e. on a JRE), the <code>javac</code> command is run instead.
+   * <p>
+   * The compilation is incremental: using the {@link CompileIndex} of the previous compilation,
+   * only the changed instrumented sources and their dependents are compiled again,
+   * the existing class files of all other sources are kept.
+   * If the compile-time constants declared by the compiled sources changed, everything is compiled again,
+   * as the constants are inlined into other sources without any reference to their declaring class.
+   *
+   * @param instrumentedSources the instrumented source code by the relative path of each source file,
+   *                            which must contain all instrumented sources changed since the previous compilation
    */
-  public void compileInstrumented() {
-    IO.clearDirectoryContents(IO.getClassesDir());
-    copyAuxiliaryFiles();
+  public void compileInstrumented(Map<Path, String> instrumentedSources) {
+    compileInstrumented(instrumentedSources, true);
+  }
+
+  private void compileInstrumented(Map<Path, String> instrumentedSources, boolean incremental) {
     Path mainFile = IO.getInstrumentedFilePath(mainJavaFile.relativePath);
-    int exitCode = Util.runCommand(new JCompilerCommandBuilder()
-        .setClassPath(IO.getInstrumentDir())
-        .setDirectory(IO.getClassesDir())
-        .addSourceFile(mainFile)
-        .build());
-    if (exitCode != 0) {
-      throw new RuntimeException("Error compiling instrumented file: " + mainFile);
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      IO.clearDirectoryContents(IO.getClassesDir());
+      copyAuxiliaryFiles();
+      int exitCode = Util.runCommand(new JCompilerCommandBuilder()
+          .setClassPath(IO.getInstrumentDir())
+          .setDirectory(IO.getClassesDir())
+          .addSourceFile(mainFile)
+          .build());
+      if (exitCode != 0) {
+        throw new RuntimeException("Error compiling instrumented file: " + mainFile);
+      }
+      return;
     }
+    CompileIndex compileIndex = incremental && Files.isDirectory(IO.getClassesDir())
+        ? CompileIndex.importIndex(IO.getCompileIndexPath()) : null;
+    List<Path> sourcesToCompile;
+    if (compileIndex == null) {
+      IO.clearDirectoryContents(IO.getClassesDir());
+      compileIndex = new CompileIndex();
+      sourcesToCompile = new ArrayList<>(List.of(mainJavaFile.relativePath));
+    } else {
+      List<Path> projectSources = new ArrayList<>(List.of(mainJavaFile.relativePath));
+      Arrays.stream(additionalJavaFiles).forEach(jFile -> projectSources.add(jFile.relativePath));
+      sourcesToCompile = compileIndex.invalidate(projectSources, instrumentedSources.keySet(), IO.getClassesDir());
+      if (!compileIndex.contains(mainJavaFile.relativePath) && !sourcesToCompile.contains(mainJavaFile.relativePath)) {
+        sourcesToCompile.add(mainJavaFile.relativePath);
+      }
+      System.out.printf("Compiling %d changed or dependent instrumented files.%n", sourcesToCompile.size());
+    }
+    copyAuxiliaryFiles();
+    if (!sourcesToCompile.isEmpty()) {
+      List<String> options = List.of(
+          "-cp", IO.getClassesDir().toString(),
+          "-sourcepath", IO.getInstrumentDir().toString(),
+          "-d", IO.getClassesDir().toString());
+      try (InstrumentedFileManager fileManager = new InstrumentedFileManager(
+          compiler.getStandardFileManager(null, null, null), instrumentedSources)) {
+        List<JavaFileObject> compilationUnits = sourcesToCompile.stream().map(fileManager::getInstrumentedSource).toList();
+        if (!compiler.getTask(null, fileManager, null, options, null, compilationUnits).call()) {
+          IO.clearDirectoryContents(IO.getClassesDir()); // no partial results for the next compilation
+          throw new RuntimeException("Error compiling instrumented file: " + mainFile);
+        }
+        for (Map.Entry<String, Path> compiledClass : fileManager.getCompiledClasses().entrySet()) {
+          Path classFile = IO.getClassesDir().resolve(compiledClass.getKey().replace('.', '/') + ".class");
+          compileIndex.addClass(compiledClass.getValue(), compiledClass.getKey(), classFile);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (incremental && compileIndex.constantsChanged()) {
+      System.out.println("Compile-time constants changed, compiling all instrumented files.");
+      compileInstrumented(instrumentedSources, false);
+      return;
+    }
+    compileIndex.exportIndex(IO.getCompileIndexPath());
   }
 
   /**
-   * Copies the <code>__Counter.class</code> file to the auxiliary directory inside the classes directory.
+   * Copies the <code>__Counter</code> class files and the generated <code>__Config</code> class
+   * to the auxiliary directory inside the classes directory.
    */
   private static void copyAuxiliaryFiles() {
-    IO.copyResource(Profiler.class, "auxiliary/__Counter.class", IO.getAuxiliaryCounterClassPath());
+    Instrumenter.copyAuxiliaryFiles(IO.getAuxiliaryClassesDir());
+    Instrumenter.copyAuxiliaryConfig(IO.getAuxiliaryInstrumentDir(), IO.getAuxiliaryClassesDir());
   }
 
   /**
@@ -63,24 +166,107 @@ public class Profiler {
    * <p>
    * The name of the class file is determined by the relative path of the main file
    * and removing the <code>.java</code> extension.
+   * <p>
+   * If a snapshot interval is given, the instrumented program periodically writes counts snapshots
+   * to the snapshots directory. Snapshots of previous runs are always removed first.
    *
-   * @param programArgs the program arguments to pass to the main method
+   * @param programArgs      the program arguments to pass to the main method
+   * @param snapshotInterval the counts snapshot interval in milliseconds, or 0 to disable snapshots
    */
-  public void profile(String[] programArgs) {
+  public void profile(String[] programArgs, long snapshotInterval) {
+    IO.clearDirectoryContents(IO.getSnapshotsDir());
+    String classFilePath = getMainClassFilePath();
+    System.out.println("Program output:");
+    JavaCommandBuilder javaCommand = new JavaCommandBuilder()
+        .setClassPath(IO.getClassesDir())
+        .setMainClass(classFilePath)
+        .addArgs(programArgs);
+    if (snapshotInterval > 0) {
+      javaCommand.addJvmArg("-Dprofiler.snapshotInterval=" + snapshotInterval);
+    }
+    int exitCode = Util.runCommand(javaCommand.build());
+    if (exitCode != 0) {
+      throw new RuntimeException("Error executing compiled class: " + classFilePath);
+    }
+  }
+
+  /**
+   * Runs the instrumented and compiled main file inside the profiler's JVM, like {@link #profile}.
+   * <p>
+   * The classes directory is loaded by a new {@link URLClassLoader}, whose parent is the platform class loader,
+   * so the instrumented program is isolated from the classes of the profiler and gets its own
+   * <code>__Counter</code> class. No new JVM is started and the class files are not verified again by another
+   * process, which reduces the overhead for short-running programs.
+   * <p>
+   * After the main method returned, the results are saved by <code>__Counter.finishInProcess</code>
+   * and its final counts are kept for the report, so the counts file does not need to be read again.
+   * Threads started by the program are not awaited, and a call of <code>System.exit</code> also terminates the profiler.
+   *
+   * @param programArgs      the program arguments to pass to the main method
+   * @param snapshotInterval the counts snapshot interval in milliseconds, or 0 to disable snapshots
+   */
+  public void profileInProcess(String[] programArgs, long snapshotInterval) {
+    IO.clearDirectoryContents(IO.getSnapshotsDir());
+    String mainClassName = getMainClassFilePath().replace('/', '.');
+    String previousInProcess = System.setProperty("profiler.inProcess", "true");
+    String previousInterval = System.setProperty("profiler.snapshotInterval", String.valueOf(snapshotInterval));
+    Thread currentThread = Thread.currentThread();
+    ClassLoader previousLoader = currentThread.getContextClassLoader();
+    System.out.println("Program output:");
+    try (URLClassLoader loader = new URLClassLoader(
+        new URL[]{IO.getClassesDir().toAbsolutePath().toUri().toURL()}, ClassLoader.getPlatformClassLoader())) {
+      currentThread.setContextClassLoader(loader);
+      RuntimeException programError = null;
+      try {
+        Method mainMethod = loader.loadClass(mainClassName).getMethod("main", String[].class);
+        mainMethod.setAccessible(true);
+        mainMethod.invoke(null, (Object) (programArgs != null ? programArgs : new String[0]));
+      } catch (InvocationTargetException e) {
+        programError = new RuntimeException("Error executing compiled class: " + mainClassName, e.getCause());
+      }
+      try {
+        Method finishMethod = loader.loadClass("auxiliary.__Counter").getMethod("finishInProcess");
+        inProcessCounts = (long[]) finishMethod.invoke(null);
+      } catch (ReflectiveOperationException | LinkageError e) {
+        if (programError == null) {
+          throw e;
+        }
+        programError.addSuppressed(e); // the counters may have failed because of the program error
+      }
+      if (programError != null) {
+        throw programError;
+      }
+    } catch (IOException | ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    } finally {
+      currentThread.setContextClassLoader(previousLoader);
+      restoreProperty("profiler.inProcess", previousInProcess);
+      restoreProperty("profiler.snapshotInterval", previousInterval);
+    }
+  }
+
+  /**
+   * Returns the path of the main class file relative to the classes directory, without the extension.
+   * The name of the class file is determined by the relative path of the main file
+   * and removing the <code>.java</code> extension.
+   *
+   * @return the main class file path, using '/' as separator
+   */
+  private String getMainClassFilePath() {
     Path mainFile = IO.getInstrumentDir().relativize(IO.getInstrumentedFilePath(mainJavaFile.relativePath));
     String filePath = mainFile.toString();
     String classFilePath = filePath.substring(0, filePath.lastIndexOf("."));
     if (File.separatorChar == '\\') {
       classFilePath = classFilePath.replace("\\", "/");
     }
-    System.out.println("Program output:");
-    int exitCode = Util.runCommand(new JavaCommandBuilder()
-        .setClassPath(IO.getClassesDir())
-        .setMainClass(classFilePath)
-        .addArgs(programArgs)
-        .build());
-    if (exitCode != 0) {
-      throw new RuntimeException("Error executing compiled class: " + classFilePath);
+    return classFilePath;
+  }
+
+  private static void restoreProperty(String key, String previousValue) {
+    if (previousValue == null) {
+      System.clearProperty(key);
+    } else {
+      System.setProperty(key, previousValue);
     }
   }
 
@@ -88,70 +274,334 @@ public class Profiler {
    * Generates the report from the metadata and counts files.
    * <p>
    * Before creation, the hit counts are added to the blocks from the counts file data.
+   * If the program was instrumented with a timing mode, the execution times are added from the timing file data.
+   * If the calls between methods were counted, the call graph is imported from the call graph file.
    * <p>
    * First the report directory is cleared.
-   * Then the following files are written:
+   * Then the following files are written, the HTML pages concurrently using {@link #writeReportFiles}:
    * <ul>
    *   <li>the index file</li>
    *   <li>the source files</li>
    *   <li>the method index files for each class in the source files</li>
+   *   <li>the call graph exports in DOT and JSON format, if the calls between methods were counted</li>
    * </ul>
    * Finally, the highlighting JavaScript file is copied to the report directory using {@link #copyReportResources}.
    */
   public void generateReport() {
+    generateReport(null);
+  }
+
+  /**
+   * Generates the report like {@link #generateReport()}, but only for the counts of a given time window.
+   * <p>
+   * The hit counts of the blocks are the difference between the counts snapshots at the end and the start of the window.
+   *
+   * @param timeWindow the time window of the program run to report, or <code>null</code> for the whole run
+   */
+  public void generateReport(TimeWindow timeWindow) {
+    generateReport(timeWindow, null);
+  }
+
+  /**
+   * Generates the report like {@link #generateReport(TimeWindow)}, but only for the java files selected by a filter.
+   * <p>
+   * If only the report is generated, just the selected files are read from the metadata file
+   * (see {@link Metadata#importMetadata(Path, BiPredicate)}), and only their counts and times are read from the
+   * memory-mapped counts and timing files. The memory needed for a focused report thus depends on the selected files,
+   * not on the size of the project. The call graph only contains the calls between methods of the selected files.
+   *
+   * @param timeWindow the time window of the program run to report, or <code>null</code> for the whole run
+   * @param filter     the filter selecting the files to report, or <code>null</code> for all files
+   */
+  public void generateReport(TimeWindow timeWindow, ReportFilter filter) {
+    BiPredicate<Path, String> fileFilter = filter != null ? filter::matches : (relativePath, packageName) -> true;
     JavaFile[] allJavaFiles;
+    Metadata header;
     if (mainJavaFile != null) {
-      allJavaFiles = Util.prependToArray(additionalJavaFiles, mainJavaFile);
+      allJavaFiles = Arrays.stream(Util.prependToArray(additionalJavaFiles, mainJavaFile))
+          .filter(jFile -> fileFilter.test(jFile.relativePath, jFile.packageName))
+          .toArray(JavaFile[]::new);
+      header = Metadata.importHeader(IO.getMetadataPath());
+    } else {
+      header = Metadata.importMetadata(IO.getMetadataPath(), fileFilter);
+      allJavaFiles = header.javaFiles();
+    }
+    if (filter != null) {
+      if (allJavaFiles.length == 0) {
+        throw new RuntimeException("No java files match the report filter: " + filter);
+      }
+      System.out.printf("Generating report for %d files matching the filter: %s%n", allJavaFiles.length, filter);
+    }
+    if (timeWindow == null && inProcessCounts != null) {
+      if (inProcessCounts.length != header.blocksCount()) {
+        throw new RuntimeException("Mismatching entry counts of the in-process run");
+      }
+      addHitCountToJavaFileBlocks(allJavaFiles, LongBuffer.wrap(inProcessCounts), null);
+    } else if (timeWindow == null) {
+      addHitCountToJavaFileBlocks(allJavaFiles, mapCounts(IO.getCountsPath(), header), null);
     } else {
-      allJavaFiles = Metadata.importMetadata(IO.getMetadataPath()).javaFiles();
+      System.out.println("Generating report for time window: " + timeWindow);
+      Path startCountsPath = timeWindow.startCountsPath(); // null if the window starts before the first snapshot
+      addHitCountToJavaFileBlocks(allJavaFiles, mapCounts(timeWindow.endCountsPath(), header),
+          startCountsPath != null ? mapCounts(startCountsPath, header) : null);
+    }
+    if (header.minimalCounters()) {
+      deriveHits(allJavaFiles);
+    }
+    TimingMode timingMode = header.timingMode();
+    if (timingMode != TimingMode.NONE) {
+      if (timeWindow != null) {
+        System.out.println("Execution times are reported for the whole run, not only for the time window.");
+      }
+      addTimesToJavaFileBlocks(allJavaFiles, IO.getTimingPath(), header);
+    }
+    CallGraph callGraph = null;
+    if (header.callGraph()) {
+      callGraph = CallGraph.importCallGraph(IO.getCallGraphPath(), getCountedBlocks(allJavaFiles, header));
+    }
+    PathProfile pathProfile = null;
+    if (header.paths()) {
+      pathProfile = PathProfile.importPaths(IO.getPathsPath(), getCountedBlocks(allJavaFiles, header));
     }
-    addHitCountToJavaFileBlocks(allJavaFiles);
     IO.clearDirectoryContents(IO.getReportDir());
-    new ReportClassIndexWriter(allJavaFiles).write();
+    List<AbstractHtmlWriter> writers = new ArrayList<>();
+    writers.add(new ReportClassIndexWriter(allJavaFiles));
     for (JavaFile jFile : allJavaFiles) {
       if (jFile.foundBlocks.isEmpty()) {
         continue; // exclude files without code blocks
       }
-      new ReportSourceWriter(jFile).write();
+      writers.add(new ReportSourceWriter(jFile));
       for (JClass clazz : jFile.topLevelClasses) {
-        new ReportMethodIndexWriter(clazz, jFile).write();
+        writers.add(new ReportMethodIndexWriter(clazz, jFile, timingMode, callGraph, pathProfile));
       }
     }
+    writeReportFiles(writers, getCountsNotice(header));
+    if (callGraph != null) {
+      callGraph.exportDot(IO.getReportCallGraphPath("dot"));
+      callGraph.exportJson(IO.getReportCallGraphPath("json"));
+    }
     copyReportResources();
   }
 
+  /**
+   * Writes all report files concurrently, each with the given notice below its heading.
+   * <p>
+   * The report files are independent of each other, so they are written by a parallel stream,
+   * on the common fork-join pool bounded by the number of available processors.
+   * If multiple writers have the same output file (e.g. the method indices of equally named classes),
+   * only the last one is written, so the report is the same as if the files were written one after another.
+   * For large reports, the progress is printed in steps of 10 percent.
+   *
+   * @param writers the report file writers, in the order of the report
+   * @param notice  the notice text, or <code>null</code>
+   */
+  private static void writeReportFiles(List<AbstractHtmlWriter> writers, String notice) {
+    Map<Path, AbstractHtmlWriter> writersByPath = new LinkedHashMap<>();
+    for (AbstractHtmlWriter writer : writers) {
+      writersByPath.remove(writer.getFileOutputPath());
+      writersByPath.put(writer.getFileOutputPath(), writer);
+    }
+    int total = writersByPath.size();
+    AtomicInteger written = new AtomicInteger();
+    writersByPath.values().parallelStream().forEach(writer -> {
+      writeReportFile(writer, notice);
+      int done = written.incrementAndGet();
+      if (total >= REPORT_PROGRESS_MIN_FILES && done * 10L / total != (done - 1) * 10L / total) {
+        System.out.printf("Written report files: %d/%d%n", done, total);
+      }
+    });
+  }
+
+  /**
+   * Writes a report file with the given notice below its heading.
+   *
+   * @param writer the report file writer
+   * @param notice the notice text, or <code>null</code>
+   */
+  private static void writeReportFile(AbstractHtmlWriter writer, String notice) {
+    writer.notice = notice;
+    writer.write();
+  }
+
+  /**
+   * Returns the notice that marks all hit counts of a report as inexact,
+   * if sampled counters or coverage-only counters were used.
+   *
+   * @param header the metadata header with the counter mode and sampling rate
+   * @return the notice text, or <code>null</code> if every hit was counted
+   */
+  private static String getCountsNotice(Metadata header) {
+    if (header.counterMode() == CounterMode.COVERAGE) {
+      return "Only coverage was recorded: every executed block is reported with a single hit.";
+    }
+    int samplingRate = header.samplingRate();
+    if (samplingRate <= 1) {
+      return null;
+    }
+    return String.format("All hit counts are estimates, sampled from about every %,d-th hit. "
+        + "Blocks executed only rarely may be reported as not covered.", samplingRate);
+  }
+
   /**
    * Populate hit counts of blocks from the counts file data.
    * <p>
-   * An error is thrown if the number of counts does not match the number of blocks.
+   * The counts files are memory-mapped read-only (see {@link #mapCounts}), so the counts are read directly
+   * from the page cache, without copying them into an intermediate array first.
+   * The counts of each file start at the id of its first counted block, so only the pages with the counts
+   * of the given files are read. If base counts are given, they are subtracted to get the counts of a time window.
+   * <p>
+   * An error is thrown if the counts of a file exceed the number of counts.
    *
-   * @param allJavaFiles the list of all java files contained in the project
+   * @param javaFiles      the java files to report, a subset of all files in the project
+   * @param allBlockCounts the counts of all counted blocks of the project
+   * @param baseCounts     the counts of an earlier snapshot to subtract, or <code>null</code>
    */
-  private static void addHitCountToJavaFileBlocks(JavaFile[] allJavaFiles) {
-    long[] counts;
-    try (DataInputStream dis = new DataInputStream(new FileInputStream(IO.getCountsPath().toString()))) {
-      int nCounts = dis.readInt();
-      counts = new long[nCounts];
-      for (int i = 0; i < nCounts; i++) {
-        counts[i] = dis.readLong();
+  private static void addHitCountToJavaFileBlocks(JavaFile[] javaFiles, LongBuffer allBlockCounts, LongBuffer baseCounts) {
+    if (baseCounts != null && baseCounts.remaining() != allBlockCounts.remaining()) {
+      throw new RuntimeException("Mismatching entry counts of snapshots of the time window");
+    }
+    for (JavaFile jFile : javaFiles) {
+      LongBuffer counts = fromFirstBlock(allBlockCounts, jFile, "counts");
+      LongBuffer base = baseCounts != null ? fromFirstBlock(baseCounts, jFile, "counts") : null;
+      for (Block block : jFile.foundBlocks) {
+        if (!block.blockType.hasCounter()) {
+          continue;
+        }
+        if (!counts.hasRemaining()) {
+          throw new RuntimeException("Ran out of block counts. Mismatching entry counts");
+        }
+        block.hits = counts.get() - (base != null ? base.get() : 0);
       }
+    }
+  }
+
+  /**
+   * Derives the hits of all derivable blocks, which were instrumented without counters (see {@link Block#isDerivable()}).
+   * <p>
+   * The hits of a block are derived from the hits of blocks before it (its base block and the branches before it),
+   * so the blocks of each file are processed in the order they were found.
+   *
+   * @param javaFiles the java files to report
+   */
+  private static void deriveHits(JavaFile[] javaFiles) {
+    for (JavaFile jFile : javaFiles) {
+      for (Block block : jFile.foundBlocks) {
+        if (block.isDerivable()) {
+          block.hits = block.getDerivedHits();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a view of the values of all blocks, starting at the first counted block of the given file.
+   *
+   * @param values the values of all counted blocks, in the order of their ids
+   * @param jFile  the java file
+   * @param kind   the kind of the values, for the error message
+   * @return the values of the file and all following files
+   */
+  private static LongBuffer fromFirstBlock(LongBuffer values, JavaFile jFile, String kind) {
+    if (jFile.firstBlockId > values.remaining()) {
+      throw new RuntimeException("Ran out of block " + kind + ". Mismatching entry counts");
+    }
+    return values.duplicate().position(values.position() + jFile.firstBlockId);
+  }
+
+  /**
+   * Returns all blocks with a counter in the order of their ids, i.e. in the order of the counts.
+   * The blocks of files not given are <code>null</code>.
+   *
+   * @param javaFiles the java files to report, a subset of all files in the project
+   * @param header    the metadata header with the number of blocks
+   * @return the list of counted blocks
+   */
+  private static List<Block> getCountedBlocks(JavaFile[] javaFiles, Metadata header) {
+    Block[] countedBlocks = new Block[header.blocksCount()];
+    for (JavaFile jFile : javaFiles) {
+      int id = jFile.firstBlockId;
+      for (Block block : jFile.foundBlocks) {
+        if (block.blockType.hasCounter()) {
+          if (id >= countedBlocks.length) {
+            throw new RuntimeException("Ran out of block ids. Mismatching entry counts");
+          }
+          countedBlocks[id++] = block;
+        }
+      }
+    }
+    return Arrays.asList(countedBlocks);
+  }
+
+  /**
+   * Populate the total and self execution times of blocks from the timing file data.
+   * <p>
+   * The timing file contains the number of blocks, followed by the total times of all blocks
+   * and then the self-times of all blocks, in the same order as the counts.
+   * Only timed blocks (methods, constructors and lambdas) have non-zero times.
+   *
+   * @param javaFiles  the java files to report, a subset of all files in the project
+   * @param timingPath the timing file
+   * @param header     the metadata header with the number of blocks
+   */
+  private static void addTimesToJavaFileBlocks(JavaFile[] javaFiles, Path timingPath, Metadata header) {
+    if (!timingPath.toFile().exists()) {
+      throw new RuntimeException("Timing file not found at expected path: " + timingPath);
+    }
+    LongBuffer totalTimes;
+    LongBuffer selfTimes;
+    try (FileChannel channel = FileChannel.open(timingPath, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int nBlocks = buffer.getInt(0);
+      if (Integer.BYTES + 2L * nBlocks * Long.BYTES != buffer.capacity()) {
+        throw new RuntimeException("Invalid size of timing file: " + timingPath);
+      }
+      if (nBlocks != header.blocksCount()) {
+        throw new RuntimeException("Timing file does not match the metadata. Mismatching entry counts");
+      }
+      totalTimes = buffer.slice(Integer.BYTES, nBlocks * Long.BYTES).asLongBuffer();
+      selfTimes = buffer.slice(Integer.BYTES + nBlocks * Long.BYTES, nBlocks * Long.BYTES).asLongBuffer();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    PrimitiveIterator.OfLong allBlockCounts = Arrays.stream(counts).iterator();
-    for (JavaFile jFile : allJavaFiles) {
+    for (JavaFile jFile : javaFiles) {
+      LongBuffer fileTotalTimes = fromFirstBlock(totalTimes, jFile, "times");
+      LongBuffer fileSelfTimes = fromFirstBlock(selfTimes, jFile, "times");
       for (Block block : jFile.foundBlocks) {
         if (!block.blockType.hasCounter()) {
           continue;
         }
-        if (!allBlockCounts.hasNext()) {
-          throw new RuntimeException("Ran out of block counts. Mismatching entry counts");
+        if (!fileTotalTimes.hasRemaining()) {
+          throw new RuntimeException("Ran out of block times. Mismatching entry counts");
         }
-        block.hits = allBlockCounts.next();
+        block.totalNanos = fileTotalTimes.get();
+        block.selfNanos = fileSelfTimes.get();
       }
     }
-    if (allBlockCounts.hasNext()) {
-      throw new RuntimeException("Too many block counts. Mismatching entry counts!");
+  }
+
+  /**
+   * Maps a counts file into memory.
+   * <p>
+   * The number of counts stated in the file is validated against the number of blocks in the metadata header,
+   * so counts of an outdated instrumentation are rejected before any block is read.
+   *
+   * @param countsPath the counts file, consisting of the number of counts followed by one long per block
+   * @param header     the metadata header with the number of blocks
+   * @return a read-only view of the counts, limited to the number of counts stated in the file header
+   */
+  private static LongBuffer mapCounts(Path countsPath, Metadata header) {
+    try (FileChannel channel = FileChannel.open(countsPath, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int nCounts = buffer.getInt(0);
+      if (nCounts != header.blocksCount()) {
+        throw new RuntimeException(String.format(
+            "Counts file does not match the metadata (%d counts for %d blocks), the program must be run again: %s",
+            nCounts, header.blocksCount(), countsPath));
+      }
+      long countsSize = Math.max(0, Math.min((long) nCounts * Long.BYTES, buffer.capacity() - Integer.BYTES));
+      return buffer.slice(Integer.BYTES, (int) countsSize).asLongBuffer();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
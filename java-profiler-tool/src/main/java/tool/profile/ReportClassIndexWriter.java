@@ -37,7 +37,7 @@ public class ReportClassIndexWriter extends AbstractHtmlWriter {
   }
 
   /**
-   * Appends a table of all classes sorted by the number of method invocations to the internal <code>content</code>.
+   * Appends a table of all classes sorted by the number of method invocations to the <code>content</code> writer.
    */
   public void sortedClassTable() {
     Map<JClass, JavaFile> fileByClass = new HashMap<>();
@@ -0,0 +1,66 @@
+package tool.profile;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A filter selecting the java files to generate the report for, by their package or their path.
+ * <p>
+ * A file is selected if any pattern matches it. A pattern matches the files of a package and all its subpackages,
+ * or the file or directory with the given path (relative to the sources directory) and all files inside it.
+ *
+ * @param patterns the package names and relative paths to select files by
+ */
+public record ReportFilter(List<String> patterns) {
+
+  /**
+   * Parses a comma-separated list of package names and relative paths,
+   * like <code>com.example.util,com/example/Main.java</code>.
+   *
+   * @param filter the filter string
+   * @return the parsed filter
+   * @throws IllegalArgumentException if the string does not contain any valid pattern
+   */
+  public static ReportFilter parse(String filter) throws IllegalArgumentException {
+    List<String> patterns = Arrays.stream(filter.split(","))
+        .map(String::strip)
+        .filter(pattern -> !pattern.isEmpty())
+        .toList();
+    if (patterns.isEmpty()) {
+      throw new IllegalArgumentException("Invalid report filter: " + filter);
+    }
+    try {
+      patterns.forEach(Path::of);
+    } catch (InvalidPathException e) {
+      throw new IllegalArgumentException("Invalid report filter: " + filter);
+    }
+    return new ReportFilter(patterns);
+  }
+
+  /**
+   * Returns whether a java file is selected by this filter.
+   *
+   * @param relativePath the path of the file relative to its sources directory
+   * @param packageName  the package of the file, or <code>null</code> for the default package
+   * @return true if any pattern matches the package or the path of the file
+   */
+  public boolean matches(Path relativePath, String packageName) {
+    Path normalizedPath = relativePath.normalize();
+    for (String pattern : patterns) {
+      if (packageName != null && (packageName.equals(pattern) || packageName.startsWith(pattern + "."))) {
+        return true;
+      }
+      if (normalizedPath.startsWith(Path.of(pattern).normalize())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", patterns);
+  }
+}
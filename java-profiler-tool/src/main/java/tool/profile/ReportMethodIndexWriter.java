@@ -1,6 +1,7 @@
 package tool.profile;
 
 import common.IO;
+import common.TimingMode;
 import tool.model.Block;
 import tool.model.JClass;
 import tool.model.JavaFile;
@@ -9,23 +10,45 @@ import tool.model.Method;
 import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * The writer class for the method index overview page of a java class.
  * This page lists all methods of a class sorted by the number of invocations.
+ * If a timing mode was used, it also lists their total, self and average execution times.
+ * If the calls between methods were counted, the callers and callees of each method are listed below.
+ * If the paths through methods were counted, the hottest paths of each method are listed below,
+ * linking to the source file with the blocks of the path highlighted.
  */
 public class ReportMethodIndexWriter extends AbstractHtmlWriter {
   private final JClass clazz;
   private final Path reportSourceFile;
+  private final TimingMode timingMode;
+  private final CallGraph callGraph;
+  private final PathProfile pathProfile;
+  /**
+   * The maximum number of paths listed per method.
+   */
+  static final int HOT_PATHS_PER_METHOD = 5;
 
   /**
    * Creates a new {@link ReportMethodIndexWriter} object.
+   * If a timing mode is given, execution time columns are added.
+   * If a call graph is given, the "called by" and "calls" tables of each method are added.
+   * If a path profile is given, the hot paths table of each method is added.
    *
-   * @param clazz    the java class to write the method index for
-   * @param javaFile the java file containing the class
+   * @param clazz       the java class to write the method index for
+   * @param javaFile    the java file containing the class
+   * @param timingMode  the timing mode the program was instrumented with
+   * @param callGraph   the call graph of the program run, or <code>null</code>
+   * @param pathProfile the paths through methods of the program run, or <code>null</code>
    */
-  public ReportMethodIndexWriter(JClass clazz, JavaFile javaFile) {
+  public ReportMethodIndexWriter(JClass clazz, JavaFile javaFile, TimingMode timingMode, CallGraph callGraph, PathProfile pathProfile) {
     this.clazz = clazz;
+    this.timingMode = timingMode;
+    this.callGraph = callGraph;
+    this.pathProfile = pathProfile;
     this.reportSourceFile = IO.getReportSourceFilePath(javaFile.relativePath);
     title = "Methods in " + clazz.getFullName();
     cssFiles = new String[]{"css/index.css"};
@@ -34,28 +57,37 @@ public class ReportMethodIndexWriter extends AbstractHtmlWriter {
   }
 
   /**
-   * Generates the main content of the HTML document by calling {@link #sortedMethodTable}.
+   * Generates the main content of the HTML document by calling {@link #sortedMethodTable},
+   * {@link #callTables} if there is a call graph and {@link #pathTables} if there is a path profile.
    */
   @Override
   public void body() {
     sortedMethodTable();
+    if (callGraph != null) {
+      callTables();
+    }
+    if (pathProfile != null) {
+      pathTables();
+    }
   }
 
   /**
-   * Appends a table of all methods sorted by the number of invocations to the internal <code>content</code>.
+   * Appends a table of all methods sorted by the number of invocations to the <code>content</code> writer.
    */
   public void sortedMethodTable() {
-    List<Method> sortedMethods = clazz.getMethodsRecursive().stream()
-        .filter(method -> !method.isAbstract())
-        .sorted(Comparator.comparingLong((Method m) -> m.getMethodBlock().hits).reversed())
-        .toList();
+    List<Method> sortedMethods = getSortedMethods();
     content.append("<table class=\"sortable\">\n")
         .append("<tr>\n")
         .append("<th>Method</th>\n")
         .append("<th class=\"metric desc\">Invocations</th>\n")
         .append("<th class=\"metric\">Block Hit Max</th>\n")
-        .append("<th class=\"metric\">Code Block Coverage</th>\n")
-        .append("</tr>\n");
+        .append("<th class=\"metric\">Code Block Coverage</th>\n");
+    if (timingMode != TimingMode.NONE) {
+      content.append("<th class=\"metric\">Total Time</th>\n")
+          .append("<th class=\"metric\">Self Time</th>\n")
+          .append("<th class=\"metric\">Avg Time</th>\n");
+    }
+    content.append("</tr>\n");
     Path sourceFileHref = IO.getReportDir().relativize(reportSourceFile);
     for (Method meth : sortedMethods) {
       Block methBlock = meth.getMethodBlock();
@@ -73,12 +105,125 @@ public class ReportMethodIndexWriter extends AbstractHtmlWriter {
           .append(String.format("<td class=\"metric\" data-total=\"%s\">%s</td>\n",
               blockHitMax, ReportUtil.formatHitCount(blockHitMax)))
           .append(String.format("<td class=\"metric coverage\" data-percentage=\"%s\" data-total=\"%s\">%s</td>\n",
-              blockCoverage.percentage(), blockCoverage.total(), blockCoverage))
+              blockCoverage.percentage(), blockCoverage.total(), blockCoverage));
+      if (timingMode != TimingMode.NONE) {
+        long avgNanos = methodHitCount > 0 ? methBlock.totalNanos / methodHitCount : 0;
+        content.append(timeCell(methBlock.totalNanos))
+            .append(timeCell(methBlock.selfNanos))
+            .append(timeCell(avgNanos));
+      }
+      content.append("</tr>\n");
+    }
+    content.append("</table>\n");
+  }
+
+  /**
+   * Returns all non-abstract methods of the class sorted by the number of invocations in descending order.
+   *
+   * @return the sorted list of methods
+   */
+  private List<Method> getSortedMethods() {
+    return clazz.getMethodsRecursive().stream()
+        .filter(method -> !method.isAbstract())
+        .sorted(Comparator.comparingLong((Method m) -> m.getMethodBlock().hits).reversed())
+        .toList();
+  }
+
+  /**
+   * Appends a "called by" and a "calls" table for each method with at least one counted call
+   * to the <code>content</code> writer. The methods are sorted by the number of invocations.
+   */
+  public void callTables() {
+    List<Method> sortedMethods = getSortedMethods();
+    content.append("<h3>Calls</h3>\n");
+    for (Method meth : sortedMethods) {
+      List<Map.Entry<Block, Long>> callers = callGraph.getCallers(meth.getMethodBlock());
+      List<Map.Entry<Block, Long>> callees = callGraph.getCallees(meth.getMethodBlock());
+      if (callers.isEmpty() && callees.isEmpty()) {
+        continue;
+      }
+      content.append(String.format("<h4>%s</h4>\n", CallGraph.getMethodName(meth.getMethodBlock())));
+      callTable("Called by", callers);
+      callTable("Calls", callees);
+    }
+  }
+
+  /**
+   * Appends a table of the methods along the edges of a method and their number of calls.
+   *
+   * @param heading the column heading of the methods
+   * @param edges   the methods with their number of calls
+   */
+  private void callTable(String heading, List<Map.Entry<Block, Long>> edges) {
+    if (edges.isEmpty()) {
+      return;
+    }
+    content.append("<table class=\"sortable calls\">\n")
+        .append("<tr>\n")
+        .append(String.format("<th>%s</th>\n", heading))
+        .append("<th class=\"metric desc\">Calls</th>\n")
+        .append("</tr>\n");
+    for (Map.Entry<Block, Long> edge : edges) {
+      content.append("<tr>\n")
+          .append(String.format("<td>%s</td>\n", CallGraph.getMethodName(edge.getKey())))
+          .append(String.format("<td class=\"metric\" data-total=\"%s\">%s</td>\n",
+              edge.getValue(), ReportUtil.formatHitCount(edge.getValue())))
           .append("</tr>\n");
     }
     content.append("</table>\n");
   }
 
+  /**
+   * Appends a table of the hottest paths for each method with at least one counted path
+   * to the <code>content</code> writer. The methods are sorted by the number of invocations.
+   * <p>
+   * Each path is shown as the lines of the blocks it enters, linking to the source file with the
+   * <code>path</code> query parameter set to the ids of these blocks, which are then highlighted.
+   */
+  public void pathTables() {
+    Path sourceFileHref = IO.getReportDir().relativize(reportSourceFile);
+    content.append("<h3>Hot Paths</h3>\n");
+    for (Method meth : getSortedMethods()) {
+      Block methBlock = meth.getMethodBlock();
+      List<Map.Entry<Long, Long>> hotPaths = pathProfile.getHotPaths(methBlock, HOT_PATHS_PER_METHOD);
+      if (hotPaths.isEmpty()) {
+        continue;
+      }
+      long executions = pathProfile.getExecutions(methBlock);
+      content.append(String.format("<h4>%s</h4>\n", CallGraph.getMethodName(methBlock)))
+          .append("<table class=\"sortable paths\">\n")
+          .append("<tr>\n")
+          .append("<th>Path (lines of the entered blocks)</th>\n")
+          .append("<th class=\"metric desc\">Executions</th>\n")
+          .append("<th class=\"metric\">Share</th>\n")
+          .append("</tr>\n");
+      for (Map.Entry<Long, Long> path : hotPaths) {
+        List<Block> blocks = pathProfile.getBlocks(methBlock, path.getKey());
+        String pathRef = String.format("%s?path=%s#%s", IO.normalize(sourceFileHref),
+            blocks.stream().map(b -> String.valueOf(b.id)).collect(Collectors.joining(".")), methBlock.beg.line());
+        String lines = blocks.stream().map(b -> String.valueOf(b.beg.line())).collect(Collectors.joining(" &rarr; "));
+        double share = (double) path.getValue() / executions;
+        content.append("<tr>\n")
+            .append(String.format("<td><a href=\"%s\">%s</a></td>\n", pathRef, lines))
+            .append(String.format("<td class=\"metric\" data-total=\"%s\">%s</td>\n",
+                path.getValue(), ReportUtil.formatHitCount(path.getValue())))
+            .append(String.format("<td class=\"metric\" data-total=\"%s\">%.1f%%</td>\n", share, share * 100))
+            .append("</tr>\n");
+      }
+      content.append("</table>\n");
+    }
+  }
+
+  /**
+   * Returns a table cell for an execution time, sortable by its value in nanoseconds.
+   *
+   * @param nanos the execution time in nanoseconds
+   * @return the HTML table cell
+   */
+  private static String timeCell(long nanos) {
+    return String.format("<td class=\"metric\" data-total=\"%s\">%s</td>\n", nanos, ReportUtil.formatTime(nanos));
+  }
+
   /**
    * Returns the block coverage of a method as a {@link ComponentCoverage} object.
    * Covered blocks are those with at least one hit.
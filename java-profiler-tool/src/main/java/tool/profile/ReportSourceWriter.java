@@ -2,7 +2,6 @@ package tool.profile;
 
 import common.IO;
 import tool.model.Block;
-import tool.model.CodeInsert;
 import tool.model.CodeRegion;
 import tool.model.JavaFile;
 
@@ -11,16 +10,33 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The writer class for the annotated source code report file of a java file.
+ * <p>
+ * If the file is opened with a <code>path</code> query parameter (the dot-separated ids of the blocks along a path,
+ * as linked from the hot paths of the method index), the code of these blocks is highlighted.
  */
 public class ReportSourceWriter extends AbstractHtmlWriter {
   private final JavaFile javaFile;
+  /**
+   * The span tags and escaped source code of the current line of the annotated code.
+   */
+  private final List<String> lineParts = new ArrayList<>();
+  private int lineNr = 1;
+  /**
+   * The number of empty lines not yet written.
+   */
+  private int emptyLines = 0;
 
   /**
    * Creates a new {@link ReportSourceWriter} object for the given java file.
@@ -38,7 +54,7 @@ public class ReportSourceWriter extends AbstractHtmlWriter {
         "css/source.css",
         "https://cdnjs.cloudflare.com/ajax/libs/highlight.js/11.10.0/styles/googlecode.min.css" // highlight.js theme
     };
-    bodyScripts = new String[]{"js/syntax.js", "js/hits.js", "js/highlighter.js"};
+    bodyScripts = new String[]{"js/syntax.js", "js/hits.js", "js/highlighter.js", "js/paths.js"};
   }
 
   /**
@@ -50,146 +66,252 @@ public class ReportSourceWriter extends AbstractHtmlWriter {
   }
 
   /**
-   * Appends all code inside a pre/code block to the internal <code>content</code> StringBuilder.
+   * Writes all code inside a pre/code block to the <code>content</code> writer.
    * <p>
    * First, the source code is read from the file.
-   * Then, the code is annotated with spans for each code block and code region.
-   * It is then post-processed to remove empty spans and spans with only whitespace.
-   * Finally, the annotated code is converted to a table with line numbers and hit counts.
+   * Then, the code is annotated with spans for each code block and code region, see {@link #writeAnnotatedCode}.
+   * The annotated code is written as a table with line numbers and hit counts, line by line,
+   * so only the current line is kept in memory.
    */
   private void preCodeElement() {
     content.append("<pre>\n");
     content.append("<code class=\"language-java\">\n");
+    String sourceCode;
     try {
-      String sourceCode = Files.readString(javaFile.sourceFile, StandardCharsets.ISO_8859_1);
-      StringBuilder builder = new StringBuilder();
-      int prevIdx = 0;
-      List<CodeInsert> tagInserts = getTagInserts(sourceCode);
-      for (CodeInsert tagInsert : tagInserts) {
-        builder.append(ReportUtil.escapeHtmlTagCharacters(sourceCode.substring(prevIdx, tagInsert.chPos())));
-        prevIdx = tagInsert.chPos();
-        builder.append(tagInsert.code());
-      }
-      builder.append(sourceCode.substring(prevIdx));
-      String annotatedCode = builder.toString();
-      annotatedCode = postProcessAnnotatedCode(annotatedCode);
-      String tabledCode = getCodeTable(annotatedCode);
-      content.append(tabledCode);
+      sourceCode = Files.readString(javaFile.sourceFile, StandardCharsets.ISO_8859_1);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    content.append("<table>\n");
+    writeAnnotatedCode(sourceCode);
+    content.append("</table>\n");
     content.append("</code>\n");
     content.append("</pre>\n");
   }
 
   /**
-   * Converts the annotated code to a table with line numbers and hit counts.
-   *
-   * @param annotatedCode the annotated code
-   * @return the table-wrapped code
-   */
-  private String getCodeTable(String annotatedCode) {
-    StringBuilder builder = new StringBuilder();
-    builder.append("<table>\n");
-    int lineNr = 1;
-    String[] splitLines = annotatedCode.split("\n");
-    for (String line : splitLines) {
-      builder.append(String.format("<tr id=\"%s\">", lineNr));
-      builder.append("<td class=\"code\">").append(line).append("</td>");
-      builder.append("</tr>\n");
-      lineNr++;
-    }
-    builder.append("</table>\n");
-    return builder.toString();
-  }
-
-  private static final String spanPatternStr = "<span class=\"[^\"]*\" title=\"[^\"]*\">";
-  private static final Pattern emptySpanPattern = Pattern.compile(spanPatternStr + "</span>", Pattern.MULTILINE);
-  private static final Pattern blankStartSpanBeforeSpanPattern = Pattern.compile(
-      "^%s(\\s+)</span>(%s)(.*)".formatted(spanPatternStr, spanPatternStr),
-      Pattern.MULTILINE);
-
-  /**
-   * Removes empty spans and spans with only whitespace from the given annotated code.
-   *
-   * @param code the annotated code
-   * @return the post-processed annotated code
-   */
-  private String postProcessAnnotatedCode(String code) {
-    code = blankStartSpanBeforeSpanPattern.matcher(code).replaceAll("$2$1$3");
-    code = emptySpanPattern.matcher(code).replaceAll("");
-    return code;
-  }
-
-  /**
-   * Retrieves all the code inserts to annotate the given source code.
+   * Writes the given source code annotated with spans, as rows of the code table.
    * <p>
    * A span is created at the beginning and end of each code block and its code region.
    * Each tag contains a class attribute with the block id and the region id.
-   * See {@link #codeSpanAt} for more details.
+   * See {@link #codeSpan} for more details.
+   * Additionally, every line is started with a span and closed at its end, in preparation for the tabled code.
+   * <p>
+   * The source code is visited once from start to end, stopping at every block and region boundary
+   * and at every line break. The active blocks and code regions at these positions are tracked by a single sweep
+   * over the begin and end positions of all counted blocks and their regions, see {@link ActiveBlocks}.
    * <p>
    * Some optimization is done to not add 0-length spans.
    *
-   * @param sourceCode the source code to retrieve the code inserts for
-   * @return a list of code inserts
+   * @param sourceCode the source code to annotate
    */
-  private List<CodeInsert> getTagInserts(String sourceCode) {
+  private void writeAnnotatedCode(String sourceCode) {
     char lf = '\n';
-    List<CodeInsert> inserts = new ArrayList<>();
-    inserts.add(new CodeInsert(0, "<span>"));
-    for (Block block : javaFile.foundBlocks) {
-      if (sourceCode.charAt(block.beg.pos()) != lf) { // optimization to not add 0-length region spans
-        inserts.add(new CodeInsert(block.beg.pos(), "</span>"));
-        inserts.add(new CodeInsert(block.beg.pos(), codeSpanAt(block.beg.pos())));
+    int[] boundaries = javaFile.foundBlocks.stream()
+        .flatMap(block -> Stream.concat(
+            Stream.of(block.beg.pos(), block.end.pos()),
+            block.codeRegions.stream().flatMap(region -> Stream.of(region.beg.pos(), region.end.pos()))))
+        .mapToInt(Integer::intValue)
+        .filter(pos -> sourceCode.charAt(pos) != lf) // optimization to not add 0-length region spans
+        .sorted()
+        .toArray();
+    ActiveBlocks activeBlocks = new ActiveBlocks(javaFile.foundBlocks);
+    int nextBoundary = 0;
+    int pos = 0;
+    appendTag("<span>");
+    while (true) {
+      boolean lineStart = pos > 0 && sourceCode.charAt(pos - 1) == lf;
+      int boundaryCount = 0;
+      while (nextBoundary < boundaries.length && boundaries[nextBoundary] == pos) {
+        boundaryCount++;
+        nextBoundary++;
+      }
+      String codeSpan = null;
+      if (boundaryCount > 0 || lineStart) {
+        List<Block> blocksAtPos = activeBlocks.at(pos);
+        codeSpan = blocksAtPos.isEmpty() ? "<span>" : codeSpan(blocksAtPos, activeBlocks.innermostRegion());
+      }
+      for (int i = 0; i < boundaryCount; i++) {
+        appendTag("</span>");
+        appendTag(codeSpan);
+      }
+      if (lineStart) {
+        appendTag(codeSpan);
+      }
+      if (pos < sourceCode.length() && sourceCode.charAt(pos) == lf) {
+        appendTag("</span>");
+      }
+      if (pos == sourceCode.length()) {
+        appendTag("</span>"); // final closing end-tag
+        break;
+      }
+      if (sourceCode.charAt(pos) == lf) {
+        endLine();
+        pos++;
+        continue;
       }
-      for (CodeRegion region : block.codeRegions) {
-        if (sourceCode.charAt(region.beg.pos()) != lf) { // optimization to not add 0-length region spans
-          inserts.add(new CodeInsert(region.beg.pos(), "</span>"));
-          inserts.add(new CodeInsert(region.beg.pos(), codeSpanAt(region.beg.pos())));
+      int nextLf = sourceCode.indexOf(lf, pos);
+      int next = nextLf >= 0 ? nextLf : sourceCode.length();
+      if (nextBoundary < boundaries.length) {
+        next = Math.min(next, boundaries[nextBoundary]);
+      }
+      appendCode(ReportUtil.escapeHtmlTagCharacters(sourceCode.substring(pos, next)));
+      pos = next;
+    }
+    endLine();
+  }
+
+  /**
+   * The active counted blocks and their active code regions at ascending character positions.
+   * <p>
+   * Instead of searching the active blocks and regions for every position, the begin and end positions
+   * of all counted blocks and their code regions are sorted in advance and swept over,
+   * while the positions are visited in ascending order.
+   * The sets of active blocks and regions are updated at every begin and end position, keeping the blocks
+   * in the order of {@link JavaFile#foundBlocks} and the regions in the order of {@link Block#codeRegions}.
+   * This takes <code>O((blocks + regions + positions) log (blocks + regions))</code> time in total.
+   */
+  private static class ActiveBlocks {
+    private final List<Block> blocks;
+    // {position, 0 for begin and 1 for end, block index, region index or -1 for the block itself}
+    private final List<int[]> events = new ArrayList<>();
+    private final TreeSet<Integer> activeBlockIndices = new TreeSet<>();
+    private final Map<Integer, TreeSet<Integer>> activeRegionIndices = new HashMap<>();
+    private int nextEvent = 0;
+
+    ActiveBlocks(List<Block> blocks) {
+      this.blocks = blocks;
+      for (int i = 0; i < blocks.size(); i++) {
+        Block block = blocks.get(i);
+        if (block.blockType.hasCounter() && block.beg.pos() < block.end.pos()) {
+          events.add(new int[]{block.beg.pos(), 0, i, -1});
+          events.add(new int[]{block.end.pos(), 1, i, -1});
+          for (int r = 0; r < block.codeRegions.size(); r++) {
+            CodeRegion region = block.codeRegions.get(r);
+            if (region.beg.pos() < region.end.pos()) {
+              events.add(new int[]{region.beg.pos(), 0, i, r});
+              events.add(new int[]{region.end.pos(), 1, i, r});
+            }
+          }
         }
-        if (sourceCode.charAt(region.end.pos()) != lf) { // optimization to not add 0-length region spans
-          inserts.add(new CodeInsert(region.end.pos(), "</span>"));
-          inserts.add(new CodeInsert(region.end.pos(), codeSpanAt(region.end.pos())));
+      }
+      events.sort(Comparator.<int[]>comparingInt(e -> e[0]).thenComparingInt(e -> e[1]));
+    }
+
+    /**
+     * Returns all counted blocks containing the given position.
+     * Must be called with non-decreasing positions.
+     *
+     * @param chPos the character position
+     * @return the list of all active blocks, from the outermost to the innermost block
+     */
+    List<Block> at(int chPos) {
+      while (nextEvent < events.size() && events.get(nextEvent)[0] <= chPos) {
+        int[] event = events.get(nextEvent++);
+        Set<Integer> indices = event[3] < 0
+            ? activeBlockIndices
+            : activeRegionIndices.computeIfAbsent(event[2], k -> new TreeSet<>());
+        int index = event[3] < 0 ? event[2] : event[3];
+        if (event[1] == 0) {
+          indices.add(index);
+        } else {
+          indices.remove(index);
         }
       }
-      if (sourceCode.charAt(block.end.pos()) != lf) { // optimization to not add 0-length region spans
-        inserts.add(new CodeInsert(block.end.pos(), "</span>"));
-        inserts.add(new CodeInsert(block.end.pos(), codeSpanAt(block.end.pos())));
+      List<Block> activeBlocks = new ArrayList<>(activeBlockIndices.size());
+      activeBlockIndices.forEach(i -> activeBlocks.add(blocks.get(i)));
+      return activeBlocks;
+    }
+
+    /**
+     * Returns the active code region of the innermost active block, at the position of the last call to {@link #at}.
+     * If several of its regions are active, the last one is returned.
+     *
+     * @return the code region, or <code>null</code> if there is no active block or it has no active region
+     */
+    CodeRegion innermostRegion() {
+      if (activeBlockIndices.isEmpty()) {
+        return null;
       }
+      int blockIndex = activeBlockIndices.last();
+      TreeSet<Integer> regionIndices = activeRegionIndices.get(blockIndex);
+      if (regionIndices == null || regionIndices.isEmpty()) {
+        return null;
+      }
+      return blocks.get(blockIndex).codeRegions.get(regionIndices.last());
     }
-    // add spans for line endings and line beginnings in preparation for tabled code
-    for (int index = sourceCode.indexOf(lf); index >= 0; index = sourceCode.indexOf(lf, index + 1)) {
-      inserts.add(new CodeInsert(index, "</span>"));
-      inserts.add(new CodeInsert(index + 1, codeSpanAt(index + 1)));
+  }
+
+  /**
+   * Appends a span start or end tag to the current line.
+   *
+   * @param tag the HTML tag
+   */
+  private void appendTag(String tag) {
+    lineParts.add(tag);
+  }
+
+  /**
+   * Appends escaped source code to the current line.
+   *
+   * @param code the escaped source code, never containing a line break
+   */
+  private void appendCode(String code) {
+    int last = lineParts.size() - 1;
+    if (last >= 0 && !lineParts.get(last).startsWith("<")) {
+      lineParts.set(last, lineParts.get(last) + code);
+    } else if (!code.isEmpty()) {
+      lineParts.add(code);
     }
-    // add final closing end-tag
-    inserts.add(new CodeInsert(sourceCode.length(), "</span>"));
-    inserts.sort(Comparator.comparing(CodeInsert::chPos));
-    return inserts;
   }
 
   /**
-   * Returns the code span for the given character position.
+   * Writes the current line as a row of the code table, without empty spans and spans with only whitespace.
    * <p>
-   * Each span contains a class attribute with all the active block and the region ids.
-   *
-   * @param chPos the character position in the original source code file
-   * @return the code span
+   * If the line starts with a span containing only whitespace, followed by another span,
+   * the whitespace is moved into the following span. Spans without any content are left out.
+   * Empty lines are only written once a non-empty line follows, so the table does not end with empty rows.
    */
-  private String codeSpanAt(int chPos) {
-    List<Block> activeBlocks = getActiveBlocksAtCharPosition(chPos);
-    if (activeBlocks.isEmpty()) {
-      return "<span>";
+  private void endLine() {
+    if (lineParts.size() >= 4 && isClassSpan(lineParts.get(0)) && lineParts.get(1).isBlank()
+        && lineParts.get(2).equals("</span>") && isClassSpan(lineParts.get(3))) {
+      lineParts.remove(2);
+      lineParts.remove(0);
+      Collections.swap(lineParts, 0, 1);
     }
-    Block lastBlock = activeBlocks.get(activeBlocks.size() - 1);
-    CodeRegion region = null;
-    for (CodeRegion r : lastBlock.codeRegions) {
-      if (r.beg.pos() <= chPos && chPos < r.end.pos()) {
-        region = r;
+    List<String> parts = new ArrayList<>(lineParts.size());
+    for (int i = 0; i < lineParts.size(); i++) {
+      if (isClassSpan(lineParts.get(i)) && i + 1 < lineParts.size() && lineParts.get(i + 1).equals("</span>")) {
+        i++; // empty span
+        continue;
       }
+      parts.add(lineParts.get(i));
+    }
+    lineParts.clear();
+    if (parts.isEmpty()) {
+      emptyLines++;
+      return;
+    }
+    for (; emptyLines > 0; emptyLines--) {
+      writeCodeRow("");
     }
-    return codeSpan(activeBlocks, lastBlock, region);
+    writeCodeRow(String.join("", parts));
+  }
 
+  private static boolean isClassSpan(String part) {
+    return part.startsWith("<span class=");
+  }
+
+  /**
+   * Writes a row of the code table with the next line number.
+   *
+   * @param line the annotated code of the line
+   */
+  private void writeCodeRow(String line) {
+    content.append(String.format("<tr id=\"%s\">", lineNr));
+    content.append("<td class=\"code\">").append(line).append("</td>");
+    content.append("</tr>\n");
+    lineNr++;
   }
 
   /**
@@ -200,15 +322,15 @@ public class ReportSourceWriter extends AbstractHtmlWriter {
    * <p>
    * In the title attribute, the hit count is shown for information on hover.
    *
-   * @param activeBlocks the list of active blocks
-   * @param block        the innermost active block
-   * @param region       the active code region
+   * @param activeBlocks the list of active blocks, the last one is the innermost block
+   * @param region       the active code region of the innermost block
    * @return the HTML span element
    */
-  private String codeSpan(List<Block> activeBlocks, Block block, CodeRegion region) {
+  private String codeSpan(List<Block> activeBlocks, CodeRegion region) {
+    Block block = activeBlocks.get(activeBlocks.size() - 1);
     long hits = (region != null) ? region.getHitCount() : block.hits;
     String coverageClass = hits > 0 ? "c" : "nc";
-    title = ReportUtil.formatHitCount(hits) + " hit" + (hits == 1 ? "" : "s");
+    String title = ReportUtil.formatHitCount(hits) + " hit" + (hits == 1 ? "" : "s");
     String classes = "b " + (region != null ? "r " : "");
     classes += activeBlocks.stream().map(b -> "b" + b.id).collect(Collectors.joining(" "));
     if (region != null) {
@@ -236,18 +358,6 @@ public class ReportSourceWriter extends AbstractHtmlWriter {
     return region.dependentBlocks.stream().distinct().map(b -> "d" + b.id).collect(Collectors.joining(" "));
   }
 
-  /**
-   * Returns a list of all active blocks at the given character position.
-   *
-   * @param chPos the character position
-   * @return the list of all active blocks
-   */
-  private List<Block> getActiveBlocksAtCharPosition(int chPos) {
-    return javaFile.foundBlocks.stream()
-        .filter(b -> b.beg.pos() <= chPos && chPos < b.end.pos() && b.blockType.hasCounter())
-        .collect(Collectors.toList());
-  }
-
   /**
    * Returns the file output path to write the file to.
    * The path is determined by calling {@link IO#getReportSourceFilePath} with the relative java file path.
@@ -15,6 +15,23 @@ public class ReportUtil {
     return String.format("%,d", number);
   }
 
+  /**
+   * Format a duration in nanoseconds as a string with a unit that keeps the number short.
+   *
+   * @param nanos the duration in nanoseconds
+   * @return the formatted duration string, e.g. <code>1.25 ms</code>
+   */
+  static String formatTime(long nanos) {
+    if (nanos < 1_000) {
+      return nanos + " ns";
+    } else if (nanos < 1_000_000) {
+      return String.format("%.2f \u00b5s", nanos / 1e3);
+    } else if (nanos < 1_000_000_000) {
+      return String.format("%.2f ms", nanos / 1e6);
+    }
+    return String.format("%,.2f s", nanos / 1e9);
+  }
+
   /**
    * Escapes the HTML tag characters <code>&lt;</code> and <code>&gt;</code> in the given code.
    *
@@ -0,0 +1,117 @@
+package tool.profile;
+
+import common.IO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A time window of a profiled program run, used to generate a report from the periodic counts snapshots.
+ * <p>
+ * The counts of a window are the difference between the snapshot at its end and the snapshot at its start.
+ * As snapshots are only written in a fixed interval, the latest snapshot at or before each bound is used.
+ *
+ * @param fromMillis the start of the window in milliseconds since the program start
+ * @param toMillis   the end of the window in milliseconds since the program start,
+ *                   or <code>Long.MAX_VALUE</code> for the end of the program run
+ */
+public record TimeWindow(long fromMillis, long toMillis) {
+  private static final Pattern snapshotFileName = Pattern.compile("counts-(\\d+)\\.dat");
+
+  /**
+   * Parses a time window of the form <code>from:to</code>.
+   * <p>
+   * Both bounds are given in milliseconds since the program start.
+   * If <code>from</code> is left empty, the window starts at the program start.
+   * If <code>to</code> is left empty, the window ends with the program run and the final counts file is used.
+   *
+   * @param window the time window string
+   * @return the parsed time window
+   * @throws IllegalArgumentException if the string is not a valid time window
+   */
+  public static TimeWindow parse(String window) throws IllegalArgumentException {
+    String[] bounds = window.split(":", -1);
+    if (bounds.length != 2) {
+      throw new IllegalArgumentException("Invalid time window: " + window);
+    }
+    long from;
+    long to;
+    try {
+      from = bounds[0].isBlank() ? 0 : Long.parseLong(bounds[0].strip());
+      to = bounds[1].isBlank() ? Long.MAX_VALUE : Long.parseLong(bounds[1].strip());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid time window: " + window);
+    }
+    if (from < 0 || from > to) {
+      throw new IllegalArgumentException("Invalid time window: " + window);
+    }
+    return new TimeWindow(from, to);
+  }
+
+  /**
+   * Returns the counts file containing the accumulated counts at the start of this window.
+   *
+   * @return the latest snapshot written at or before the start of the window,
+   * or <code>null</code> if the window starts before the first snapshot (all counts are zero)
+   */
+  public Path startCountsPath() {
+    Map.Entry<Long, Path> snapshot = findSnapshots().floorEntry(fromMillis);
+    return snapshot != null ? snapshot.getValue() : null;
+  }
+
+  /**
+   * Returns the counts file containing the accumulated counts at the end of this window.
+   *
+   * @return the latest snapshot written at or before the end of the window,
+   * or the final counts file if the window is open-ended
+   * @throws RuntimeException if no snapshot was written until the end of the window
+   */
+  public Path endCountsPath() {
+    if (toMillis == Long.MAX_VALUE) {
+      return IO.getCountsPath();
+    }
+    Map.Entry<Long, Path> snapshot = findSnapshots().floorEntry(toMillis);
+    if (snapshot == null) {
+      throw new RuntimeException("No counts snapshot found at or before " + toMillis + " ms in: " + IO.getSnapshotsDir());
+    }
+    return snapshot.getValue();
+  }
+
+  /**
+   * Finds all counts snapshots in the snapshots directory.
+   *
+   * @return the snapshot file paths sorted by their elapsed time in milliseconds
+   */
+  private static NavigableMap<Long, Path> findSnapshots() {
+    NavigableMap<Long, Path> snapshots = new TreeMap<>();
+    if (!Files.isDirectory(IO.getSnapshotsDir())) {
+      return snapshots;
+    }
+    try (Stream<Path> files = Files.list(IO.getSnapshotsDir())) {
+      files.forEach(file -> {
+        Matcher matcher = snapshotFileName.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          snapshots.put(Long.parseLong(matcher.group(1)), file);
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return snapshots;
+  }
+
+  /**
+   * {@return a readable description of the time window}
+   */
+  @Override
+  public String toString() {
+    return fromMillis + " ms - " + (toMillis == Long.MAX_VALUE ? "end" : toMillis + " ms");
+  }
+}
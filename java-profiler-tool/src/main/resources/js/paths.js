@@ -0,0 +1,16 @@
+function highlightPath() {
+  const path = new URLSearchParams(window.location.search).get('path');
+  if (path == null) return;
+  const pathBlocks = new Set(path.split('.').map(id => 'b' + id));
+  $('pre code span.b').each(function () {
+    // the innermost block of a span is its last block class
+    const blockClasses = $(this).attr('class').split(/\s+/).filter(cls => /^b\d+$/.test(cls));
+    if (pathBlocks.has(blockClasses[blockClasses.length - 1])) {
+      $(this).attr('data-path', 'taken');
+    }
+  });
+}
+
+window.addEventListener('load', function() {
+  highlightPath();
+});
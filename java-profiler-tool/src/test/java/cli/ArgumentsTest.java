@@ -1,18 +1,25 @@
 package cli;
 
+import common.CounterMode;
 import common.OS;
 import common.RunMode;
+import common.TimingMode;
 import org.junit.jupiter.api.Test;
 import tool.cli.Arguments;
+import tool.profile.ReportFilter;
+import tool.profile.TimeWindow;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static tool.cli.Arguments.getUsage;
 
 public class ArgumentsTest {
@@ -60,28 +67,28 @@ public class ArgumentsTest {
   @Test
   public void testDefaultMode() {
     Arguments args = Arguments.parse(new String[]{simpleExampleFile.toString()});
-    Arguments expected = new Arguments(RunMode.DEFAULT, simpleExampleFile, null, false, false, null);
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).build();
     assertEquals(expected, args);
   }
 
   @Test
   public void testDefaultMode_withFolder() {
     Arguments args = Arguments.parse(new String[]{"-d", samplesFolder.toString(), simpleExampleFile.toString()});
-    Arguments expected = new Arguments(RunMode.DEFAULT, simpleExampleFile, samplesFolder, false, false, null);
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setSourcesDir(samplesFolder).build();
     assertEquals(expected, args);
   }
 
   @Test
   public void testDefaultMode_withArgument() {
     Arguments args = Arguments.parse(new String[]{algorithmsExampleFile.toString(), "10"});
-    Arguments expected = new Arguments(RunMode.DEFAULT, algorithmsExampleFile, null, false, false, new String[]{"10"});
+    Arguments expected = new Arguments.Builder().setTargetPath(algorithmsExampleFile).setProgramArgs("10").build();
     assertEquals(expected, args);
   }
 
   @Test
   public void testDefaultMode_withFolder_withArgument() {
     Arguments args = Arguments.parse(new String[]{"-d", samplesFolder.toString(), algorithmsExampleFile.toString(), "20"});
-    Arguments expected = new Arguments(RunMode.DEFAULT, algorithmsExampleFile, samplesFolder, false, false, new String[]{"20"});
+    Arguments expected = new Arguments.Builder().setTargetPath(algorithmsExampleFile).setSourcesDir(samplesFolder).setProgramArgs("20").build();
     assertEquals(expected, args);
   }
 
@@ -151,7 +158,7 @@ public class ArgumentsTest {
 
   @Test
   public void testReportOnly() {
-    Arguments expected = new Arguments(RunMode.REPORT_ONLY, null, null, false, false, null);
+    Arguments expected = new Arguments.Builder().setRunMode(RunMode.REPORT_ONLY).build();
     assertEquals(expected, Arguments.parse(new String[]{"-r"}));
   }
 
@@ -164,14 +171,14 @@ public class ArgumentsTest {
 
   @Test
   public void testInstrumentOnly() {
-    Arguments expected = new Arguments(RunMode.INSTRUMENT_ONLY, simpleExampleFile, null, false, false, null);
+    Arguments expected = new Arguments.Builder().setRunMode(RunMode.INSTRUMENT_ONLY).setTargetPath(simpleExampleFile).build();
     assertEquals(expected, Arguments.parse(new String[]{"-i", simpleExampleFile.toString()}));
     assertEquals(expected, Arguments.parse(new String[]{"--instrument-only", simpleExampleFile.toString()}));
   }
 
   @Test
   public void testInstrumentOnly_folder() {
-    Arguments expected = new Arguments(RunMode.INSTRUMENT_ONLY, samplesFolder, null, false, false, null);
+    Arguments expected = new Arguments.Builder().setRunMode(RunMode.INSTRUMENT_ONLY).setTargetPath(samplesFolder).build();
     assertEquals(expected, Arguments.parse(new String[]{"-i", samplesFolder.toString()}));
     assertEquals(expected, Arguments.parse(new String[]{"--instrument-only", samplesFolder.toString()}));
   }
@@ -180,11 +187,217 @@ public class ArgumentsTest {
   public void testFullArguments() {
     Arguments args = Arguments.parse(new String[]{
         "-v", "-s", "-d", samplesFolder.toString(), lambdaExampleFile.toString(), "arg1", "arg2", "arg3"});
-    Arguments expected = new Arguments(
-        RunMode.DEFAULT, lambdaExampleFile, samplesFolder, true, true, new String[]{"arg1", "arg2", "arg3"});
+    Arguments expected = new Arguments.Builder()
+        .setTargetPath(lambdaExampleFile)
+        .setSourcesDir(samplesFolder)
+        .setCounterMode(CounterMode.SYNCHRONIZED)
+        .setVerboseOutput(true)
+        .setProgramArgs("arg1", "arg2", "arg3")
+        .build();
     assertEquals(expected, args);
   }
 
+  @Test
+  public void testStripedCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.STRIPED).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-t", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--striped", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testMappedCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.MAPPED).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-m", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--mapped", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testSampledCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.SAMPLED).setSamplingRate(100).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-n", "100", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--sampled", "100", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testSampledCounters_invalidRate() {
+    String[] args1 = new String[]{"-n", "0", simpleExampleFile.toString()};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Invalid sampling rate: 0", exception.getMessage());
+    String[] args2 = new String[]{"--sampled", "x", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("Invalid sampling rate: x", exception.getMessage());
+    String[] args3 = new String[]{"--sampled"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args3));
+    assertEquals("No sampling rate specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testCompactCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.COMPACT).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-k", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--compact", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testCoverageOnlyCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.COVERAGE).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-o", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--coverage-only", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testTiming() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setTimingMode(TimingMode.WALL).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-T", "wall", simpleExampleFile.toString()}));
+    expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCounterMode(CounterMode.STRIPED).setTimingMode(TimingMode.CPU).build();
+    assertEquals(expected, Arguments.parse(new String[]{"--timing", "cpu", "-t", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testTiming_invalidMode() {
+    String[] args1 = new String[]{"-T", "user", simpleExampleFile.toString()};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Invalid timing mode: user", exception.getMessage());
+    String[] args2 = new String[]{"--timing"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("No timing mode specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testCallGraph() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setCallGraph(true).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-c", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--call-graph", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testMinimalCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setMinimalCounters(true).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-M", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--minimal-counters", simpleExampleFile.toString()}));
+    String[] args = new String[]{"-M", "-o", simpleExampleFile.toString()};
+    Exception exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args));
+    assertEquals("Minimal counters cannot be combined with coverage-only counters.", exception.getMessage());
+  }
+
+  @Test
+  public void testHoistLoopCounters() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setHoistLoopCounters(true).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-H", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--hoist-loop-counters", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testPaths() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setPaths(true).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-P", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--paths", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testInProcess() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setInProcess(true).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-l", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--in-process", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testExclusiveCounterModes() {
+    String[] args1 = new String[]{"-s", "-t", simpleExampleFile.toString()};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+    String[] args2 = new String[]{"--striped", "-v", "--synchronized", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+    String[] args3 = new String[]{"-m", "-s", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args3));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+    String[] args4 = new String[]{"-t", "--sampled", "10", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args4));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+    String[] args5 = new String[]{"--compact", "-o", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args5));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testBuilder_exclusiveModes() {
+    Arguments.Builder builder = new Arguments.Builder().setCounterMode(CounterMode.SAMPLED).setRunMode(RunMode.REPORT_ONLY);
+    var exception = assertThrows(IllegalArgumentException.class, () -> builder.setCounterMode(CounterMode.STRIPED));
+    assertEquals("Multiple counter modes specified.", exception.getMessage());
+    exception = assertThrows(IllegalArgumentException.class, () -> builder.setRunMode(RunMode.INSTRUMENT_ONLY));
+    assertEquals("Multiple run modes specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testSnapshotInterval() {
+    Arguments expected = new Arguments.Builder().setTargetPath(simpleExampleFile).setSnapshotInterval(500).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-p", "500", simpleExampleFile.toString()}));
+    assertEquals(expected, Arguments.parse(new String[]{"--snapshot-interval", "500", simpleExampleFile.toString()}));
+  }
+
+  @Test
+  public void testSnapshotInterval_invalid() {
+    String[] args1 = new String[]{"-p", "0", simpleExampleFile.toString()};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Invalid snapshot interval: 0", exception.getMessage());
+    String[] args2 = new String[]{"--snapshot-interval", "1s", simpleExampleFile.toString()};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("Invalid snapshot interval: 1s", exception.getMessage());
+    String[] args3 = new String[]{"--snapshot-interval"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args3));
+    assertEquals("No snapshot interval specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testReportWindow() {
+    Arguments expected = new Arguments.Builder().setRunMode(RunMode.REPORT_ONLY).setReportWindow(new TimeWindow(1000, 5000)).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-w", "1000:5000", "-r"}));
+    assertEquals(expected, Arguments.parse(new String[]{"-r", "--window", "1000:5000"}));
+    expected = new Arguments.Builder().setRunMode(RunMode.REPORT_ONLY).setReportWindow(new TimeWindow(0, 5000)).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-r", "-w", ":5000"}));
+    expected = new Arguments.Builder().setRunMode(RunMode.REPORT_ONLY).setReportWindow(new TimeWindow(1000, Long.MAX_VALUE)).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-r", "-w", "1000:"}));
+  }
+
+  @Test
+  public void testReportWindow_invalid() {
+    String[] args1 = new String[]{"-r", "-w", "5000:1000"};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Invalid time window: 5000:1000", exception.getMessage());
+    String[] args2 = new String[]{"-r", "--window", "1000"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("Invalid time window: 1000", exception.getMessage());
+    String[] args3 = new String[]{"-r", "--window", "a:b"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args3));
+    assertEquals("Invalid time window: a:b", exception.getMessage());
+    String[] args4 = new String[]{"-r", "-w"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args4));
+    assertEquals("No time window specified.", exception.getMessage());
+  }
+
+  @Test
+  public void testReportFilter() {
+    ReportFilter filter = new ReportFilter(List.of("com.example", "com/example/Main.java"));
+    Arguments expected = new Arguments.Builder().setRunMode(RunMode.REPORT_ONLY).setReportFilter(filter).build();
+    assertEquals(expected, Arguments.parse(new String[]{"-f", "com.example,com/example/Main.java", "-r"}));
+    assertEquals(expected, Arguments.parse(new String[]{"-r", "--filter", " com.example , com/example/Main.java,"}));
+    assertTrue(filter.matches(Path.of("com", "example", "util", "Util.java"), "com.example.util"));
+    assertTrue(filter.matches(Path.of("com", "example", "Main.java"), null));
+    assertFalse(filter.matches(Path.of("com", "examples", "Other.java"), "com.examples"));
+    assertFalse(filter.matches(Path.of("Main.java"), null));
+  }
+
+  @Test
+  public void testReportFilter_invalid() {
+    String[] args1 = new String[]{"-r", "-f", " , "};
+    var exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args1));
+    assertEquals("Invalid report filter:  , ", exception.getMessage());
+    String[] args2 = new String[]{"-r", "--filter"};
+    exception = assertThrows(IllegalArgumentException.class, () -> Arguments.parse(args2));
+    assertEquals("No report filter specified.", exception.getMessage());
+  }
+
   @Test
   public void testExclusiveRunModes() {
     // instrument-only first
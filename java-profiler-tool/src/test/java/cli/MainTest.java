@@ -3,13 +3,23 @@ package cli;
 import common.*;
 import org.junit.jupiter.api.Test;
 import tool.cli.Main;
+import tool.model.Metadata;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static com.github.stefanbirkner.systemlambda.SystemLambda.catchSystemExit;
 import static org.junit.jupiter.api.Assertions.*;
@@ -125,6 +135,17 @@ public class MainTest {
     assertTrue(ex.getMessage().contains("counts.dat"));
   }
 
+  @Test
+  public void testDefaultMode_snapshots_thenReportWindow() throws IOException {
+    Main.main(new String[]{"--snapshot-interval", "1", algorithmsExampleFile.toString(), "20"});
+    assertTrue(IO.getSnapshotsDir().toFile().isDirectory());
+    Files.copy(IO.getCountsPath(), IO.getSnapshotPath(60_000));
+    Main.main(new String[]{"-r", "-w", ":60000"});
+    Main.main(new String[]{"-r", "--window", "60000:"});
+    Main.main(new String[]{"-r", "-w", "30000:90000"});
+    assertTrue(IO.getReportIndexSymLinkPath().toFile().exists());
+  }
+
   @Test
   public void testDefaultMode_synchronized() {
     Main.main(new String[]{"-s", lambdaExampleFile.toString()});
@@ -151,4 +172,371 @@ public class MainTest {
     assertFalse(instrumentedContent.contains("incLambda("));
   }
 
+  @Test
+  public void testInstrumentOnly_striped() throws IOException {
+    Main.main(new String[]{"-t", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("incStriped("));
+    assertTrue(instrumentedContent.contains("incLambdaStriped("));
+    assertFalse(instrumentedContent.contains("inc("));
+    assertFalse(instrumentedContent.contains("incLambda("));
+  }
+
+  @Test
+  public void testInstrumentOnly_sampled() throws IOException {
+    Main.main(new String[]{"--sampled", "10", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("incSampled("));
+    assertTrue(instrumentedContent.contains("incLambdaSampled("));
+    assertFalse(instrumentedContent.contains("inc("));
+    assertFalse(instrumentedContent.contains("incLambda("));
+  }
+
+  @Test
+  public void testDefaultMode_sampled_reportNotice() throws IOException {
+    Main.main(new String[]{"-n", "10", algorithmsExampleFile.toString(), "20"});
+    assertTrue(Files.readString(IO.getReportIndexPath()).contains("class=\"notice\""));
+    Main.main(new String[]{algorithmsExampleFile.toString(), "20"});
+    assertFalse(Files.readString(IO.getReportIndexPath()).contains("class=\"notice\""));
+  }
+
+  @Test
+  public void testInstrumentOnly_compact() throws IOException {
+    Main.main(new String[]{"--compact", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("incCompact("));
+    assertTrue(instrumentedContent.contains("incLambdaCompact("));
+    assertFalse(instrumentedContent.contains("inc("));
+    assertFalse(instrumentedContent.contains("incLambda("));
+    assertTrue(Files.exists(IO.getAuxiliaryInstrumentDir().resolve("__Counter$CompactCounts.class")));
+  }
+
+  @Test
+  public void testInstrumentOnly_coverageOnly() throws IOException {
+    Main.main(new String[]{"--coverage-only", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("incCoverage("));
+    assertTrue(instrumentedContent.contains("incLambdaCoverage("));
+    assertFalse(instrumentedContent.contains("inc("));
+    assertFalse(instrumentedContent.contains("incLambda("));
+  }
+
+  @Test
+  public void testDefaultMode_coverageOnly_reportNotice() throws IOException {
+    Main.main(new String[]{"-o", algorithmsExampleFile.toString(), "20"});
+    assertTrue(Files.readString(IO.getReportIndexPath()).contains("class=\"notice\""));
+  }
+
+  @Test
+  public void testInstrumentOnly_folder_deterministicBlockIds() throws IOException {
+    Main.main(new String[]{"-i", samplesFolder.toString()});
+    Map<Path, String> firstRun = readInstrumentedFiles();
+    Main.main(new String[]{"-i", samplesFolder.toString()});
+    assertEquals(firstRun, readInstrumentedFiles());
+    Set<Integer> blockIds = new HashSet<>();
+    Pattern incPattern = Pattern.compile("__Counter\\.inc\\w*\\((\\d+)");
+    for (String content : firstRun.values()) {
+      Matcher matcher = incPattern.matcher(content);
+      while (matcher.find()) {
+        assertTrue(blockIds.add(Integer.parseInt(matcher.group(1))));
+      }
+    }
+    int blocksCount = Metadata.importHeader(IO.getMetadataPath()).blocksCount();
+    assertEquals(blocksCount, blockIds.size());
+    assertTrue(blockIds.stream().allMatch(id -> id < blocksCount));
+  }
+
+  @Test
+  public void testInstrumentOnly_cachedFiles() throws IOException {
+    Main.main(new String[]{"-i", samplesFolder.toString()});
+    Map<Path, String> firstRun = readInstrumentedFiles();
+    PrintStream originalOut = System.out;
+    final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(outContent));
+      Main.main(new String[]{"-i", samplesFolder.toString()});
+    } finally {
+      System.setOut(originalOut);
+    }
+    assertTrue(outContent.toString().contains("Unchanged file: "));
+    assertFalse(outContent.toString().contains("Parsing file: "));
+    assertEquals(firstRun, readInstrumentedFiles());
+    Main.main(new String[]{"--synchronized", "-i", samplesFolder.toString()});
+    assertTrue(Files.readString(IO.getInstrumentedFilePath(lambdaExampleFile.getFileName())).contains("incSync("));
+    // instrumented from the cached models, which must include the loop statement positions
+    Main.main(new String[]{"-H", "-i", samplesFolder.toString()});
+    Map<Path, String> fromCache = readInstrumentedFiles();
+    assertTrue(fromCache.values().stream().anyMatch(content -> content.contains("__loop")));
+    IO.clearDirectoryContents(IO.getCacheDir());
+    Main.main(new String[]{"-H", "-i", samplesFolder.toString()});
+    assertEquals(fromCache, readInstrumentedFiles());
+  }
+
+  @Test
+  public void testDefaultMode_incrementalCompilation() {
+    Main.main(new String[]{"-d", samplesFolder.toString(), algorithmsExampleFile.toString(), "20"});
+    PrintStream originalOut = System.out;
+    final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(outContent));
+      Main.main(new String[]{"-d", samplesFolder.toString(), algorithmsExampleFile.toString(), "20"});
+    } finally {
+      System.setOut(originalOut);
+    }
+    assertTrue(outContent.toString().contains("Compiling 0 changed or dependent instrumented files."));
+    assertTrue(Files.exists(IO.getClassesDir().resolve("Algorithms.class")));
+  }
+
+  @Test
+  public void testDefaultMode_incrementalCompilation_changedConstant() throws IOException {
+    Path sourcesDir = Files.createTempDirectory("constants");
+    Path mainFile = sourcesDir.resolve("ConstantUser.java");
+    Path constantsFile = sourcesDir.resolve("Constants.java");
+    Files.writeString(mainFile, """
+        public class ConstantUser {
+          public static void main(String[] args) {
+            System.out.println("limit=" + Constants.LIMIT);
+          }
+        }
+        """);
+    Files.writeString(constantsFile, "public class Constants {\n  static final int LIMIT = 1;\n}\n");
+    Main.main(new String[]{"-l", "-d", sourcesDir.toString(), mainFile.toString()});
+    // the block ids of ConstantUser do not change, but the constant is inlined into it
+    Files.writeString(constantsFile, "public class Constants {\n  static final int LIMIT = 2;\n}\n");
+    PrintStream originalOut = System.out;
+    final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(outContent));
+      Main.main(new String[]{"-l", "-d", sourcesDir.toString(), mainFile.toString()});
+    } finally {
+      System.setOut(originalOut);
+    }
+    assertTrue(outContent.toString().contains("Compile-time constants changed, compiling all instrumented files."));
+    assertTrue(outContent.toString().contains("limit=2"));
+  }
+
+  @Test
+  public void testReportOnly_corruptMetadata() throws IOException {
+    Main.main(new String[]{"-i", algorithmsExampleFile.toString()});
+    Metadata metadata = Metadata.importMetadata(IO.getMetadataPath());
+    assertEquals(metadata.blocksCount(), Metadata.importHeader(IO.getMetadataPath()).blocksCount());
+    assertEquals(1, metadata.javaFiles().length);
+    byte[] metadataBytes = Files.readAllBytes(IO.getMetadataPath());
+    metadataBytes[metadataBytes.length - 1] ^= 1;
+    Files.write(IO.getMetadataPath(), metadataBytes);
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> Main.main(new String[]{"-r"}));
+    assertTrue(ex.getMessage().contains("checksum"));
+  }
+
+  @Test
+  public void testReportOnly_filter() {
+    Path deepPackageFile = Path.of("at", "jku", "classes", "DeepPackage.java");
+    Path helperFile = Path.of("helper", "Helper.java");
+    Main.main(new String[]{"-d", samplesFolder.toString(), simpleExampleFile.toString()});
+    Main.main(new String[]{"-r", "-f", "at.jku"});
+    assertTrue(Files.exists(IO.getReportSourceFilePath(deepPackageFile)));
+    assertFalse(Files.exists(IO.getReportSourceFilePath(helperFile)));
+    assertFalse(Files.exists(IO.getReportSourceFilePath(Path.of("Simple.java"))));
+    Main.main(new String[]{"-r", "--filter", "helper/Helper.java,Simple.java"});
+    assertFalse(Files.exists(IO.getReportSourceFilePath(deepPackageFile)));
+    assertTrue(Files.exists(IO.getReportSourceFilePath(helperFile)));
+    assertTrue(Files.exists(IO.getReportSourceFilePath(Path.of("Simple.java"))));
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> Main.main(new String[]{"-r", "-f", "no.such.pkg"}));
+    assertTrue(ex.getMessage().contains("filter"));
+  }
+
+  @Test
+  public void testDefaultMode_inProcess() throws IOException {
+    Main.main(new String[]{algorithmsExampleFile.toString(), "20"});
+    byte[] separateProcessCounts = Files.readAllBytes(IO.getCountsPath());
+    Main.main(new String[]{"--in-process", algorithmsExampleFile.toString(), "20"});
+    assertArrayEquals(separateProcessCounts, Files.readAllBytes(IO.getCountsPath()));
+    assertTrue(Files.exists(IO.getReportIndexPath()));
+    assertNull(System.getProperty("profiler.inProcess"));
+  }
+
+  @Test
+  public void testInProcess_disabled() throws IOException {
+    Main.main(new String[]{"-l", algorithmsExampleFile.toString(), "20"});
+    byte[] enabledCounts = Files.readAllBytes(IO.getCountsPath());
+    System.setProperty("profiler.enabled", "false");
+    try {
+      Main.main(new String[]{"-l", algorithmsExampleFile.toString(), "20"});
+    } finally {
+      System.clearProperty("profiler.enabled");
+    }
+    // nothing is counted or saved, the counts of the previous run are kept
+    assertArrayEquals(enabledCounts, Files.readAllBytes(IO.getCountsPath()));
+    assertTrue(Files.readString(IO.getReportMethodIndexPath("Algorithms")).contains("data-total=\"0\""));
+  }
+
+  @Test
+  public void testInProcess_controlFile() throws IOException {
+    Path controlFile = IO.getOutputDir().resolve("disabled.txt");
+    IO.createDirectoriesIfNotExists(controlFile);
+    Files.writeString(controlFile, "# disabled classes\nAlgorithms\n");
+    System.setProperty("profiler.controlFile", controlFile.toString());
+    try {
+      Main.main(new String[]{"-l", algorithmsExampleFile.toString(), "20"});
+    } finally {
+      System.clearProperty("profiler.controlFile");
+    }
+    assertTrue(Files.exists(IO.getAuxiliaryClassesDir().resolve("__Classes.txt")));
+    // the counts are saved, but no block of the disabled class was counted
+    byte[] counts = Files.readAllBytes(IO.getCountsPath());
+    for (int i = Integer.BYTES; i < counts.length; i++) {
+      assertEquals(0, counts[i]);
+    }
+    // the thread watching the control file is stopped, so it does not keep the program's class loader alive
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("__Counter-control")) {
+        assertDoesNotThrow(() -> thread.join(1000));
+        assertFalse(thread.isAlive());
+      }
+    }
+  }
+
+  private static Map<Path, String> readInstrumentedFiles() throws IOException {
+    Map<Path, String> contents = new HashMap<>();
+    try (Stream<Path> files = Files.walk(IO.getInstrumentDir())) {
+      for (Path file : files.filter(f -> f.toString().endsWith(".java")).toList()) {
+        contents.put(file, Files.readString(file));
+      }
+    }
+    return contents;
+  }
+
+  @Test
+  public void testInstrumentOnly_generatedConfig() throws IOException {
+    Main.main(new String[]{"--sampled", "10", "-i", lambdaExampleFile.toString()});
+    String configContent = Files.readString(IO.getAuxiliaryInstrumentDir().resolve("__Config.java"));
+    assertTrue(configContent.contains("SAMPLING_RATE = 10;"));
+    assertTrue(configContent.contains("BLOCKS_COUNT = "));
+    assertTrue(Files.exists(IO.getAuxiliaryInstrumentDir().resolve("__Config.class")));
+  }
+
+  @Test
+  public void testInstrumentOnly_defaultConfig() throws Exception {
+    Main.main(new String[]{"--sampled", "10", "-c", "-P", "-T", "cpu", "-i", lambdaExampleFile.toString()});
+    Metadata header = Metadata.importHeader(IO.getMetadataPath());
+    // the default configuration reads the metadata from the output directory set for __Counter
+    Path outputDir = Files.createTempDirectory("profiler");
+    Files.copy(IO.getMetadataPath(), outputDir.resolve("metadata.dat"));
+    URL toolClasses = Main.class.getProtectionDomain().getCodeSource().getLocation();
+    System.setProperty("profiler.outputDir", outputDir.toString());
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{toolClasses}, ClassLoader.getPlatformClassLoader())) {
+      Class<?> config = loader.loadClass("auxiliary.__Config");
+      assertEquals(outputDir.toString(), config.getField("OUTPUT_DIR").get(null));
+      assertEquals(header.blocksCount(), config.getField("BLOCKS_COUNT").getInt(null));
+      assertEquals(10, config.getField("SAMPLING_RATE").getInt(null));
+      assertEquals(TimingMode.CPU.ordinal(), config.getField("TIMING_MODE").getInt(null));
+      assertTrue(config.getField("CALL_GRAPH").getBoolean(null));
+      assertTrue(config.getField("PATHS").getBoolean(null));
+    } finally {
+      System.clearProperty("profiler.outputDir");
+    }
+  }
+
+  @Test
+  public void testInstrumentOnly_mapped() throws IOException {
+    Main.main(new String[]{"--mapped", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("incMapped("));
+    assertTrue(instrumentedContent.contains("incLambdaMapped("));
+    assertFalse(instrumentedContent.contains("inc("));
+    assertFalse(instrumentedContent.contains("incLambda("));
+    assertTrue(Files.exists(IO.getAuxiliaryInstrumentDir().resolve("__Counter$MappedCounts.class")));
+  }
+
+  @Test
+  public void testInstrumentOnly_timing() throws IOException {
+    Main.main(new String[]{"--timing", "wall", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("__Counter.enter();try{"));
+    assertTrue(instrumentedContent.contains("}finally{__Counter.exit("));
+    assertTrue(instrumentedContent.contains("incLambdaTimed("));
+    assertTrue(Files.exists(IO.getAuxiliaryInstrumentDir().resolve("__Counter$TimingStack.class")));
+  }
+
+  @Test
+  public void testInstrumentOnly_callGraph() throws IOException {
+    Main.main(new String[]{"--call-graph", "-i", lambdaExampleFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(lambdaExampleFile.getFileName()));
+    assertTrue(instrumentedContent.contains("__Counter.call("));
+    assertTrue(instrumentedContent.contains("}finally{__Counter.ret();}"));
+    assertTrue(Files.exists(IO.getAuxiliaryInstrumentDir().resolve("__Counter$CallStack.class")));
+  }
+
+  @Test
+  public void testDefaultMode_callGraph() throws IOException {
+    Main.main(new String[]{"-c", "-T", "wall", algorithmsExampleFile.toString(), "20"});
+    assertTrue(Files.exists(IO.getCallGraphPath()));
+    assertTrue(Files.readString(IO.getReportCallGraphPath("dot")).contains(" -> "));
+    assertTrue(Files.readString(IO.getReportCallGraphPath("json")).contains("\"edges\""));
+    assertTrue(Files.readString(IO.getReportMethodIndexPath("Algorithms")).contains("Called by"));
+  }
+
+  @Test
+  public void testInstrumentOnly_minimalCounters() throws IOException {
+    Path basicElementsFile = samplesFolder.resolve("BasicElements.java");
+    Pattern incPattern = Pattern.compile("__Counter\\.inc\\(");
+    Main.main(new String[]{"-i", basicElementsFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(basicElementsFile.getFileName()));
+    long allCounters = incPattern.matcher(instrumentedContent).results().count();
+    Main.main(new String[]{"-M", "-i", basicElementsFile.toString()});
+    instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(basicElementsFile.getFileName()));
+    long minimalCounters = incPattern.matcher(instrumentedContent).results().count();
+    assertTrue(minimalCounters > 0);
+    assertTrue(minimalCounters < allCounters);
+    assertTrue(Metadata.importHeader(IO.getMetadataPath()).minimalCounters());
+  }
+
+  @Test
+  public void testDefaultMode_minimalCounters() {
+    Main.main(new String[]{"--minimal-counters", samplesFolder.resolve("BasicElements.java").toString()});
+    assertTrue(IO.getReportIndexSymLinkPath().toFile().exists());
+  }
+
+  @Test
+  public void testDefaultMode_hoistLoopCounters() throws IOException {
+    Path basicElementsFile = samplesFolder.resolve("BasicElements.java");
+    Main.main(new String[]{basicElementsFile.toString()});
+    byte[] counts = Files.readAllBytes(IO.getCountsPath());
+    Main.main(new String[]{"-H", basicElementsFile.toString()});
+    assertArrayEquals(counts, Files.readAllBytes(IO.getCountsPath()));
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(basicElementsFile.getFileName()));
+    assertTrue(instrumentedContent.contains("}finally{__Counter.add("));
+  }
+
+  @Test
+  public void testInstrumentOnly_paths() throws IOException {
+    Path localClassesFile = samplesFolder.resolve("LocalClasses.java");
+    Main.main(new String[]{"--paths", "-i", localClassesFile.toString()});
+    String instrumentedContent = Files.readString(IO.getInstrumentDir().resolve(localClassesFile.getFileName()));
+    assertTrue(instrumentedContent.contains("long __path=0;try{"));
+    assertTrue(instrumentedContent.contains("__path+="));
+    assertTrue(instrumentedContent.contains("}finally{__Counter.pathDense("));
+    assertTrue(Metadata.importHeader(IO.getMetadataPath()).paths());
+  }
+
+  @Test
+  public void testDefaultMode_paths() throws IOException {
+    Main.main(new String[]{"-P", "-c", "-T", "wall", algorithmsExampleFile.toString(), "20"});
+    assertTrue(Files.exists(IO.getPathsPath()));
+    String methodIndex = Files.readString(IO.getReportMethodIndexPath("Algorithms"));
+    assertTrue(methodIndex.contains("Hot Paths"));
+    assertTrue(methodIndex.contains(".html?path="));
+    Main.main(new String[]{"-P", samplesFolder.resolve("AnonymousClasses.java").toString()});
+    assertTrue(Files.exists(IO.getPathsPath()));
+  }
+
+  @Test
+  public void testDefaultMode_timing() throws IOException {
+    Main.main(new String[]{"-T", "cpu", algorithmsExampleFile.toString(), "20"});
+    assertTrue(Files.exists(IO.getTimingPath()));
+    assertTrue(Files.readString(IO.getReportMethodIndexPath("Algorithms")).contains("Self Time"));
+    Main.main(new String[]{algorithmsExampleFile.toString(), "20"});
+    assertFalse(Files.readString(IO.getReportMethodIndexPath("Algorithms")).contains("Self Time"));
+  }
+
 }
@@ -219,6 +219,18 @@ public class SamplesTest {
     TestUtils.instrumentFolderAndProfile(samplesFolder, "SwitchPatternMatching.java");
   }
 
+  @Test
+  public void testLambdaAllocationSample() {
+    Path mainFile = samplesFolder.resolve("LambdaAllocation.java");
+    TestUtils.instrumentAndProfileWithArgs(mainFile.toString(), String.valueOf(100_000), "2");
+  }
+
+  @Test
+  public void testSamplingOverheadSample() {
+    Path mainFile = samplesFolder.resolve("SamplingOverhead.java");
+    TestUtils.instrumentAndProfileWithArgs("--sampled", "16", mainFile.toString(), String.valueOf(1_000_000), "2", "2");
+  }
+
   @Test
   public void testParallelSumSample() {
     Path mainFile = samplesFolder.resolve("ParallelSum.java");
@@ -231,6 +243,36 @@ public class SamplesTest {
     TestUtils.instrumentAndProfileWithArgs("--synchronized", mainFile.toString(), String.valueOf(5_000_000), "4");
   }
 
+  @Test
+  public void testParallelSumSample_StripedCounters() {
+    Path mainFile = samplesFolder.resolve("ParallelSum.java");
+    TestUtils.instrumentAndProfileWithArgs("--striped", mainFile.toString(), String.valueOf(5_000_000), "4");
+  }
+
+  @Test
+  public void testParallelSumSample_SampledCounters() {
+    Path mainFile = samplesFolder.resolve("ParallelSum.java");
+    TestUtils.instrumentAndProfileWithArgs("--sampled", "100", mainFile.toString(), String.valueOf(5_000_000), "4");
+  }
+
+  @Test
+  public void testParallelSumSample_CompactCounters() {
+    Path mainFile = samplesFolder.resolve("ParallelSum.java");
+    TestUtils.instrumentAndProfileWithArgs("--compact", mainFile.toString(), String.valueOf(5_000_000), "4");
+  }
+
+  @Test
+  public void testParallelSumSample_CoverageOnlyCounters() {
+    Path mainFile = samplesFolder.resolve("ParallelSum.java");
+    TestUtils.instrumentAndProfileWithArgs("--coverage-only", mainFile.toString(), String.valueOf(5_000_000), "4");
+  }
+
+  @Test
+  public void testParallelSumSample_MappedCounters() {
+    Path mainFile = samplesFolder.resolve("ParallelSum.java");
+    TestUtils.instrumentAndProfileWithArgs("--mapped", mainFile.toString(), String.valueOf(5_000_000), "4");
+  }
+
   @Test
   public void testParallelSumSample_noCounters() {
     Path mainFile = samplesFolder.resolve("ParallelSum.java");
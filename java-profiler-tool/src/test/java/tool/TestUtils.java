@@ -2,6 +2,7 @@ package tool;
 
 import common.IO;
 import tool.cli.Main;
+import tool.model.Metadata;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -36,12 +37,7 @@ public class TestUtils {
   }
 
   static void createMockCounterData() {
-    int nBlocks;
-    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(IO.getMetadataPath().toFile()))) {
-      nBlocks = ois.readInt(); // number of blocks is the first value of the metadata file
-    } catch (IOException | NumberFormatException e) {
-      throw new RuntimeException(e);
-    }
+    int nBlocks = Metadata.importHeader(IO.getMetadataPath()).blocksCount();
     try (DataOutputStream dis = new DataOutputStream(new FileOutputStream(IO.getCountsPath().toFile()))) {
       dis.writeInt(nBlocks);
       for (int i = 0; i < nBlocks; i++) {
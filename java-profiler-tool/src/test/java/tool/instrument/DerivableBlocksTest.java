@@ -0,0 +1,141 @@
+package tool.instrument;
+
+import org.junit.jupiter.api.Test;
+import tool.model.Block;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static tool.instrument.TestInstrumentUtils.parseJavaFile;
+
+public class DerivableBlocksTest {
+  @Test
+  public void testIfElseChain() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            if (x == 0) {
+              return;
+            } else if (x == 1) {
+              x++;
+            } else {
+              x--;
+            }
+            if (x == 2) {
+              x++;
+            }
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(5, blocks.size());
+    Block method = blocks.get(0);
+    assertFalse(method.isDerivable());
+    assertFalse(blocks.get(1).isDerivable());
+    assertFalse(blocks.get(2).isDerivable());
+    assertSame(method, blocks.get(3).derivationBase);
+    assertEquals(List.of(blocks.get(1), blocks.get(2)), blocks.get(3).derivationDependents);
+    assertFalse(blocks.get(4).isDerivable());
+  }
+
+  @Test
+  public void testTryBlock() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            if (x == 0) {
+              return;
+            }
+            try {
+              x = x / (x - 1);
+              if (x > 1) return;
+            } catch (ArithmeticException e) {
+              x = 0;
+            }
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(5, blocks.size());
+    Block tryBlock = blocks.get(2);
+    assertSame(blocks.get(0), tryBlock.derivationBase);
+    assertEquals(List.of(blocks.get(1)), tryBlock.derivationDependents);
+    assertFalse(blocks.get(3).isDerivable());
+    assertFalse(blocks.get(4).isDerivable());
+  }
+
+  @Test
+  public void testSwitchExpression() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            String s = switch (args.length) {
+              case 0 -> "zero";
+              case 1 -> "one";
+              default -> {
+                yield "many";
+              }
+            };
+            switch (args.length) {
+              case 0 -> s = "none";
+              default -> s = "some";
+            }
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(8, blocks.size());
+    Block defaultCase = blocks.get(4);
+    assertSame(blocks.get(0), defaultCase.derivationBase);
+    assertEquals(List.of(blocks.get(2), blocks.get(3)), defaultCase.derivationDependents);
+    assertEquals(List.of(defaultCase), blocks.stream().filter(Block::isDerivable).toList());
+  }
+
+  @Test
+  public void testSwitchExpressionInLoopCondition() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            while ((x = switch (x) {
+              case 0 -> 1;
+              default -> 0;
+            }) > 0) {
+              x++;
+            }
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(2, blocks.size());
+    assertTrue(blocks.stream().noneMatch(Block::isDerivable));
+  }
+
+  @Test
+  public void testSwitchExpressionInTernary() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            int y = x > 0 ? x = switch (x) {
+              case 1 -> 1;
+              default -> 2;
+            } : 0;
+            java.util.List<?> list = switch (y) {
+              case 1 -> null;
+              default -> java.util.List.of();
+            };
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(7, blocks.size());
+    assertFalse(blocks.get(3).isDerivable());
+    Block defaultCase = blocks.get(6);
+    assertSame(blocks.get(0), defaultCase.derivationBase);
+    assertEquals(List.of(blocks.get(5)), defaultCase.derivationDependents);
+    assertEquals(List.of(defaultCase), blocks.stream().filter(Block::isDerivable).toList());
+  }
+}
@@ -3,6 +3,9 @@ package tool.instrument;
 import tool.model.JavaFile;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
 import static tool.instrument.TestProgramBuilder.*;
 import static tool.instrument.TestInstrumentUtils.parseJavaFile;
 import static tool.model.BlockType.*;
@@ -244,4 +247,29 @@ public class LambdaExpressionsTest {
     );
     TestInstrumentUtils.assertResultEquals(expected, parseJavaFile(fileContent));
   }
+
+  @Test
+  public void testSSLambdaValueExpressions() {
+    String fileContent = """
+        class A {
+          Function<Integer, Integer> f1 = x -> x * 2;
+          Predicate<String> f2 = s -> s.length() == 0;
+          Function<Point, Integer> f3 = p -> p.x;
+          Function<Integer, Integer> f4 = x -> x;
+          Supplier<Function<Integer, Integer>> f5 = () -> y -> y + 1;
+          Function<Integer, Integer> f6 = x -> foo(x);
+          Consumer<Integer> f7 = x -> total += x;
+          Consumer<Integer> f8 = x -> count++;
+          Function<Integer, Boolean> f9 = x -> x != last;
+          Consumer<Integer> f10 = x -> last = x;
+          Function<Integer, Boolean> f11 = x -> x <= last;
+          Consumer<Integer> f12 = x -> last <<= x;
+          Supplier<Foo> f13 = () -> new Foo();
+        }
+        """;
+    JavaFile javaFile = parseJavaFile(fileContent);
+    List<Boolean> expected = List.of(true, true, true, true, true, false, false, false, true, false, true, false, false);
+    List<Boolean> actual = javaFile.foundBlocks.stream().map(b -> b.isValueExpression).toList();
+    assertIterableEquals(expected, actual);
+  }
 }
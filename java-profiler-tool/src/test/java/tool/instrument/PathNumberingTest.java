@@ -0,0 +1,129 @@
+package tool.instrument;
+
+import org.junit.jupiter.api.Test;
+import tool.model.Block;
+import tool.model.BlockType;
+import tool.model.PathNumbering;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static tool.instrument.TestInstrumentUtils.parseJavaFile;
+
+public class PathNumberingTest {
+  @Test
+  public void testBranchesLoopsAndSwitches() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            if (x == 0) {
+              x++;
+            } else {
+              x--;
+            }
+            for (int i = 0; i < x; i++) {
+              if (i == 1) break;
+            }
+            switch (x) {
+              case 1 -> x++;
+              default -> x--;
+            }
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(8, blocks.size());
+    PathNumbering numbering = new PathNumbering(blocks.get(0));
+    assertTrue(numbering.isValid());
+    assertEquals(6, numbering.getPathsCount());
+    assertEquals(Map.of(blocks.get(2), 3L, blocks.get(6), 1L, blocks.get(7), 2L), numbering.getIncrements());
+    assertEquals(List.of(blocks.get(0), blocks.get(1)), numbering.getBlocks(0));
+    assertEquals(List.of(blocks.get(0), blocks.get(1), blocks.get(6)), numbering.getBlocks(1));
+    assertEquals(List.of(blocks.get(0), blocks.get(2), blocks.get(7)), numbering.getBlocks(5));
+  }
+
+  @Test
+  public void testNestedBlocks() {
+    String fileContent = """
+        public class Main {
+          public static void main(String[] args) {
+            int x = args.length;
+            try {
+              if (x == 1) {
+                x++;
+              }
+            } catch (RuntimeException e) {
+              x--;
+            }
+            Runnable r = () -> {
+              if (args.length > 0) return;
+            };
+          }
+        }
+        """;
+    List<Block> blocks = parseJavaFile(fileContent).foundBlocks;
+    assertEquals(6, blocks.size());
+    PathNumbering numbering = new PathNumbering(blocks.get(0));
+    assertEquals(4, numbering.getPathsCount());
+    assertEquals(Map.of(blocks.get(2), 2L, blocks.get(3), 1L), numbering.getIncrements());
+    assertEquals(List.of(blocks.get(0), blocks.get(1), blocks.get(2), blocks.get(3)), numbering.getBlocks(2 + 1));
+  }
+
+  @Test
+  public void testPathsCounts() {
+    String fileContent = """
+        public class Main {
+          static int ifElse(int x) {
+            if (x > 0) {
+              x++;
+            } else {
+              x--;
+            }
+            return x;
+          }
+          static int nestedIf(int x) {
+            if (x > 0) {
+              if (x > 1) {
+                x++;
+              }
+            }
+            return x;
+          }
+          static int twoIfs(int x) {
+            if (x > 0) {
+              x++;
+            }
+            if (x > 1) {
+              x--;
+            }
+            return x;
+          }
+          static int sign(int x) {
+            if (x < 0) {
+              return -1;
+            }
+            if (x > 0) {
+              return 1;
+            }
+            return 0;
+          }
+        }
+        """;
+    List<Block> methods = parseJavaFile(fileContent).foundBlocks.stream()
+        .filter(block -> block.blockType == BlockType.METHOD)
+        .toList();
+    assertEquals(4, methods.size());
+    List<PathNumbering> numberings = methods.stream().map(PathNumbering::new).toList();
+    assertEquals(List.of(2L, 3L, 4L, 3L), numberings.stream().map(PathNumbering::getPathsCount).toList());
+    PathNumbering twoIfs = numberings.get(2);
+    Set<List<Block>> paths = new HashSet<>();
+    for (long pathId = 0; pathId < twoIfs.getPathsCount(); pathId++) {
+      paths.add(twoIfs.getBlocks(pathId));
+    }
+    assertEquals(4, paths.size());
+  }
+}
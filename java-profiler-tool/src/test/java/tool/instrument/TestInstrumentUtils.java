@@ -1,7 +1,6 @@
 package tool.instrument;
 
 import common.OS;
-import common.RunMode;
 import tool.cli.Arguments;
 import tool.model.JavaFile;
 
@@ -30,7 +29,7 @@ public class TestInstrumentUtils {
   public static Instrumenter analyzeStringContent(String content) {
     Path file = createTempFileWithContent(content);
     JavaFile javaFile = new JavaFile(file);
-    Arguments args = new Arguments(RunMode.DEFAULT, null, null, false, true, null);
+    Arguments args = new Arguments.Builder().setVerboseOutput(true).build();
     Instrumenter instrumenter = new Instrumenter(new JavaFile[]{javaFile}, args);
     instrumenter.analyzeFiles();
     return instrumenter;
@@ -0,0 +1,51 @@
+import java.lang.management.ManagementFactory;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the heap allocation rate of stream pipelines with single-statement lambdas.
+ * <p>
+ * Both pipelines compute the same sum, the first one using plain expressions as lambda bodies,
+ * the second one using method calls (which could also be statements).
+ * Without instrumentation, none of them allocates per element.
+ */
+public class LambdaAllocation {
+  static int twice(int x) {
+    return x * 2;
+  }
+
+  static boolean isMultipleOf3(int x) {
+    return x % 3 == 0;
+  }
+
+  static long plus1000(long x) {
+    return x + 1000;
+  }
+
+  public static void main(String[] args) {
+    int nElements = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int nRounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    for (int round = 1; round <= nRounds; round++) {
+      long allocated0 = threadMXBean.getCurrentThreadAllocatedBytes();
+      long sum1 = IntStream.range(0, nElements)
+          .map(x -> x * 2)
+          .filter(x -> x % 3 == 0)
+          .asLongStream()
+          .map(x -> x + 1000)
+          .sum();
+      long allocated1 = threadMXBean.getCurrentThreadAllocatedBytes();
+      long sum2 = IntStream.range(0, nElements)
+          .map(x -> twice(x))
+          .filter(x -> isMultipleOf3(x))
+          .asLongStream()
+          .map(x -> plus1000(x))
+          .sum();
+      long allocated2 = threadMXBean.getCurrentThreadAllocatedBytes();
+      if (sum1 != sum2) {
+        throw new AssertionError("Different sums: " + sum1 + " != " + sum2);
+      }
+      System.out.printf("Round %d: expression lambdas: %.1f B/element, method call lambdas: %.1f B/element%n",
+          round, (allocated1 - allocated0) / (double) nElements, (allocated2 - allocated1) / (double) nElements);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Measures the time per iteration of a hot loop calling a small method with a branch,
+ * executed by several threads at once.
+ * <p>
+ * Each iteration hits the loop body and the method, and every eighth iteration also the branch.
+ * Comparing the times of an uninstrumented run with runs using different sampling rates (<code>--sampled N</code>)
+ * shows how the counting overhead depends on <code>N</code>.
+ * The JIT compiler inlines the method into the loop. To measure the overhead in a method that is not inlined,
+ * run with <code>JAVA_TOOL_OPTIONS=-XX:CompileCommand=dontinline,SamplingOverhead::step</code>.
+ * <p>
+ * The branch depends on the loop variable only, so it is predictable, and it is rarely taken. Otherwise, the JIT
+ * compiler turns the uninstrumented branch into a conditional move, which lengthens the dependency chain of
+ * <code>x</code>, and the uninstrumented loop runs slower than an instrumented one.
+ */
+public class SamplingOverhead {
+  static volatile int sink;
+
+  static int step(int x, int i) {
+    x = x * 31 + i;
+    if ((i & 7) == 0) {
+      x ^= i;
+    }
+    return x;
+  }
+
+  static int spin(int iterations) {
+    int x = 0;
+    for (int i = 0; i < iterations; i++) {
+      x = step(x, i);
+    }
+    return x;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int nIterations = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+    int nThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int nRounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    for (int round = 1; round <= nRounds; round++) {
+      Thread[] threads = new Thread[nThreads];
+      long start = System.nanoTime();
+      for (int t = 0; t < nThreads; t++) {
+        threads[t] = new Thread(() -> sink = spin(nIterations));
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      double nanosPerIteration = (System.nanoTime() - start) / (double) nIterations;
+      System.out.printf("Round %d: %d threads, %.2f ns/iteration%n", round, nThreads, nanosPerIteration);
+    }
+  }
+}